@@ -0,0 +1,317 @@
+package celestibytes.lib.util;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** A thread-safe PileList whose producers wait for free space instead of losing items.
+ *  Uses a ReentrantLock rather than synchronized so that waiting virtual threads don't pin their carrier.
+ *  The item iterators and PileListItem.remove() are not guarded, only use them while no other thread touches the list. */
+public class BlockingPileList<VTYPE> extends PileList<VTYPE> {
+
+	final ReentrantLock lock = new ReentrantLock();
+	final Condition notEmpty = lock.newCondition();
+	final Condition notFull = lock.newCondition();
+
+	/** Constructs an unbounded BlockingPileList, put never blocks */
+	public BlockingPileList() {
+		super();
+	}
+
+	/** Constructs a BlockingPileList that holds at most limit items, put blocks while the list is full
+	 *  and addItem keeps the PileList behaviour of discarding the excess item. */
+	public BlockingPileList(int limit) {
+		super(limit, false, false);
+	}
+
+	/** Adds the item to the end of the list, waiting for space if the list is full */
+	public void put(VTYPE item) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while(super.isFull()) {
+				notFull.await();
+			}
+			add(item);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Adds the item to the end of the list if there is space, returns false if the list was full */
+	public boolean offer(VTYPE item) {
+		lock.lock();
+		try {
+			if(super.isFull()) {
+				return false;
+			}
+			add(item);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Adds the item to the end of the list, waiting up to the timeout for space. Returns false if the time ran out. */
+	public boolean offer(VTYPE item, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while(super.isFull()) {
+				if(nanos <= 0L) {
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			add(item);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Removes and returns the first item on the list, waiting for one if the list is empty */
+	public VTYPE take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while(super.isEmpty()) {
+				notEmpty.await();
+			}
+			return super.popFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Removes and returns the first item on the list, waiting up to the timeout for one. Returns null if the time ran out. */
+	public VTYPE poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while(super.isEmpty()) {
+				if(nanos <= 0L) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return super.popFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Adds the item while holding the lock and wakes up a waiting consumer */
+	private void add(VTYPE item) {
+		int before = super.getCount();
+		super.addItem(item);
+		if(super.getCount() != before) {
+			notEmpty.signal();
+		}
+	}
+
+	@Override
+	public void addItem(VTYPE item) {
+		lock.lock();
+		try {
+			add(item);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void addAll(Collection<? extends VTYPE> items) {
+		Object[] arr = items.toArray();
+		lock.lock();
+		try {
+			addRunAndSignal(arr);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void addAll(VTYPE[] items) {
+		lock.lock();
+		try {
+			addRunAndSignal(items);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void addRunAndSignal(Object[] items) {
+		addRun(items, 0, items.length);
+		if(!super.isEmpty()) {
+			notEmpty.signalAll();
+		}
+	}
+
+	/** Like drainTo, but waits for at least one item first. The consumer is called while the lock is held. */
+	public int takeTo(Consumer<? super VTYPE> consumer, int maxItems) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while(super.isEmpty()) {
+				notEmpty.await();
+			}
+			return drainTo(consumer, maxItems);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** The consumer is called while the lock is held */
+	@Override
+	public int drainTo(Consumer<? super VTYPE> consumer, int maxItems) {
+		lock.lock();
+		try {
+			int n = super.drainTo(consumer, maxItems);
+			if(n > 0) {
+				notFull.signalAll();
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(VTYPE[] array) {
+		lock.lock();
+		try {
+			int n = super.drainTo(array);
+			if(n > 0) {
+				notFull.signalAll();
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<VTYPE> popFirst(int n) {
+		lock.lock();
+		try {
+			return super.popFirst(n);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public VTYPE popFirst() {
+		lock.lock();
+		try {
+			return super.popFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public VTYPE popLast() {
+		lock.lock();
+		try {
+			return super.popLast();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public VTYPE getFirst() {
+		lock.lock();
+		try {
+			return super.getFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public VTYPE getLast() {
+		lock.lock();
+		try {
+			return super.getLast();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void removeFirst() {
+		lock.lock();
+		try {
+			int before = super.getCount();
+			super.removeFirst();
+			if(super.getCount() != before) {
+				notFull.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void removeLast() {
+		lock.lock();
+		try {
+			int before = super.getCount();
+			super.removeLast();
+			if(super.getCount() != before) {
+				notFull.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isFull() {
+		lock.lock();
+		try {
+			return super.isFull();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		lock.lock();
+		try {
+			return super.isEmpty();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getCount() {
+		lock.lock();
+		try {
+			return super.getCount();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Copies the items out while holding the lock, so the returned Spliterator is safe to use while other threads keep using the list */
+	@Override
+	public Spliterator<VTYPE> spliterator() {
+		lock.lock();
+		try {
+			Object[] items = new Object[super.getCount()];
+			copyTo(items);
+			return Spliterators.spliterator(items, Spliterator.ORDERED);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
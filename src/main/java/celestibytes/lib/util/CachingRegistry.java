@@ -0,0 +1,257 @@
+package celestibytes.lib.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/** A Registry for values that can be made again, like computed assets. It holds at most maxWeight worth of values and
+ *  drops the least recently used ones to make room. With softValues the values are only softly reachable, so the
+ *  garbage collector can also drop them when memory runs low. If a loader is given, getValue calls it for keys that
+ *  aren't there (anymore) and keeps the result, otherwise it returns the nullValue like Registry does.
+ *  A value heavier than maxWeight is never cached: registering one throws an IllegalArgumentException, and getValue
+ *  returns a loaded one without keeping it.
+ *  Thread-safe, the loader is called without holding the lock. */
+public class CachingRegistry<KEYTYPE, VALUE> {
+	
+	private static final String DEFAULT_REGISTRY_NAME = "unnamed_registry";
+	
+	/** In access order, so the eldest entry is the least recently used one */
+	private final LinkedHashMap<KEYTYPE, Node<KEYTYPE>> entries = new LinkedHashMap<KEYTYPE, Node<KEYTYPE>>(16, 0.75F, true);
+	private final ReferenceQueue<Object> cleared = new ReferenceQueue<Object>();
+	
+	private final long maxWeight;
+	private final ToLongFunction<? super VALUE> weigher;
+	private final boolean softValues;
+	private final Function<? super KEYTYPE, ? extends VALUE> loader;
+	private long weight = 0L;
+	private long evictions = 0L;
+	
+	private VALUE nullValue = null;
+	private String registryName = null;
+	
+	/** Constructs a CachingRegistry that keeps at most maxSize values and has no loader */
+	public CachingRegistry(String registryName, int maxSize) {
+		this(registryName, maxSize, null, false, null);
+	}
+	
+	/** Constructs a new CachingRegistry
+	 *  @param registryName the name of the registry, if null the registry will be called "unnamed_registry"
+	 *  @param maxWeight the most weight the values may have together
+	 *  @param weigher gives the weight of a value, if null every value weighs 1
+	 *  @param softValues if the values should be held with soft references
+	 *  @param loader makes the value of a missing key, may be null
+	 */
+	public CachingRegistry(String registryName, long maxWeight, ToLongFunction<? super VALUE> weigher, boolean softValues, Function<? super KEYTYPE, ? extends VALUE> loader) {
+		if(maxWeight < 0L) {
+			throw new IllegalArgumentException("maxWeight must not be negative, got " + maxWeight);
+		}
+		this.registryName = registryName != null ? registryName : DEFAULT_REGISTRY_NAME;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.softValues = softValues;
+		this.loader = loader;
+	}
+	
+	/** Registers the value with the key if the key hasn't been registered already. */
+	public synchronized void register(KEYTYPE key, VALUE value) {
+		long w = checkedWeight(key, value);
+		expunge();
+		if(get(key) == null) {
+			put(key, value, w);
+		} else {
+			System.err.println("Registry \"" + registryName + "\" already contains key \"" + key.toString() + "\", ignoring.");
+		}
+	}
+	
+	/** reRegisters the value with the key only if the key is still in the cache (overwriting the old value). */
+	public synchronized void reRegister(KEYTYPE key, VALUE value) {
+		long w = checkedWeight(key, value);
+		expunge();
+		if(get(key) != null) {
+			put(key, value, w);
+		}
+	}
+	
+	/** Registers the value with the key without caring about if it has already been registered or not. */
+	public synchronized void register_force(KEYTYPE key, VALUE value) {
+		long w = checkedWeight(key, value);
+		expunge();
+		put(key, value, w);
+	}
+	
+	/** Gets the value of the key. If it isn't in the cache the loader makes it, without a loader (or if the loader
+	 *  returns null) the nullValue is returned. */
+	public VALUE getValue(KEYTYPE key) {
+		synchronized(this) {
+			VALUE value = get(key);
+			if(value != null || loader == null) {
+				return value != null ? value : nullValue;
+			}
+		}
+		VALUE loaded = loader.apply(key);
+		if(loaded == null) {
+			return nullValue;
+		}
+		long w = weigh(key, loaded);
+		if(w > maxWeight) {
+			return loaded;
+		}
+		synchronized(this) {
+			// another thread may have loaded it meanwhile, keep the one that got in first
+			VALUE value = get(key);
+			if(value != null) {
+				return value;
+			}
+			expunge();
+			put(key, loaded, w);
+			return loaded;
+		}
+	}
+	
+	/** Checks if the key is in the cache, doesn't call the loader */
+	public synchronized boolean containsKey(KEYTYPE key) {
+		Node<KEYTYPE> node = entries.get(key);
+		return node != null && node.get() != null;
+	}
+	
+	public synchronized void removeByKey(KEYTYPE key) {
+		Node<KEYTYPE> node = entries.remove(key);
+		if(node != null) {
+			weight -= node.weight;
+		}
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0L;
+		expunge();
+	}
+	
+	/** Returns the amount of cached values, values the garbage collector took may still be counted */
+	public synchronized int getCount() {
+		expunge();
+		return entries.size();
+	}
+	
+	public synchronized long getWeight() {
+		expunge();
+		return weight;
+	}
+	
+	/** Returns how many values have been dropped to stay within maxWeight */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+	
+	/** Sets the nullValue which will be returned when trying to get a value that isn't there and can't be loaded */
+	public synchronized void setNullValue(VALUE nullValue) {
+		this.nullValue = nullValue;
+	}
+	
+	/** Sets the nullValue to null, same as calling setNullValue with null */
+	public synchronized void clearNullValue() {
+		this.nullValue = null;
+	}
+	
+	public String getRegistryName() {
+		return registryName;
+	}
+	
+	/** Returns the cached value, null if there is none. Counts as a use for the eviction order. */
+	@SuppressWarnings("unchecked")
+	private VALUE get(KEYTYPE key) {
+		Node<KEYTYPE> node = entries.get(key);
+		if(node == null) {
+			return null;
+		}
+		Object value = node.get();
+		if(value == null) {
+			removeNode(node);
+		}
+		return (VALUE) value;
+	}
+	
+	private long weigh(KEYTYPE key, VALUE value) {
+		if(value == null) {
+			throw new NullPointerException("CachingRegistry \"" + registryName + "\" can't hold null values");
+		}
+		long w = weigher == null ? 1L : weigher.applyAsLong(value);
+		if(w < 0L) {
+			throw new IllegalArgumentException("Negative weight " + w + " for key \"" + key + "\"");
+		}
+		return w;
+	}
+	
+	/** Weighs the value, a value that could never fit is rejected before anything is evicted for it */
+	private long checkedWeight(KEYTYPE key, VALUE value) {
+		long w = weigh(key, value);
+		if(w > maxWeight) {
+			throw new IllegalArgumentException("Value of key \"" + key + "\" weighs " + w + ", more than the maxWeight " + maxWeight + " of CachingRegistry \"" + registryName + "\"");
+		}
+		return w;
+	}
+	
+	/** Puts the value in and evicts the least recently used values until the weight fits, w must be at most maxWeight
+	 *  so the new value itself is never evicted */
+	private void put(KEYTYPE key, VALUE value, long w) {
+		Node<KEYTYPE> node = new Node<KEYTYPE>(key, w);
+		node.value = softValues ? new SoftValue<KEYTYPE>(value, node, cleared) : value;
+		Node<KEYTYPE> old = entries.put(key, node);
+		if(old != null) {
+			weight -= old.weight;
+		}
+		weight += w;
+		
+		Iterator<Node<KEYTYPE>> eldest = entries.values().iterator();
+		while(weight > maxWeight && eldest.hasNext()) {
+			Node<KEYTYPE> victim = eldest.next();
+			eldest.remove();
+			weight -= victim.weight;
+			evictions++;
+		}
+	}
+	
+	/** Forgets the values the garbage collector has taken */
+	private void expunge() {
+		Object ref;
+		while((ref = cleared.poll()) != null) {
+			removeNode(((SoftValue<?>) ref).node);
+		}
+	}
+	
+	private void removeNode(Node<?> node) {
+		// the key may have a newer node by now, only this exact node is removed
+		if(entries.remove(node.key, node)) {
+			weight -= node.weight;
+		}
+	}
+	
+	private static class Node<KEYTYPE> {
+		private final KEYTYPE key;
+		private final long weight;
+		/** The value, or a SoftValue holding it */
+		private Object value;
+		
+		private Node(KEYTYPE key, long weight) {
+			this.key = key;
+			this.weight = weight;
+		}
+		
+		private Object get() {
+			return value instanceof SoftValue ? ((SoftValue<?>) value).get() : value;
+		}
+	}
+	
+	private static class SoftValue<KEYTYPE> extends SoftReference<Object> {
+		private final Node<KEYTYPE> node;
+		
+		private SoftValue(Object value, Node<KEYTYPE> node, ReferenceQueue<Object> queue) {
+			super(value, queue);
+			this.node = node;
+		}
+	}
+	
+}
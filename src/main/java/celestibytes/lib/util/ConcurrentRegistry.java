@@ -0,0 +1,216 @@
+package celestibytes.lib.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A Registry that can be registered to and read from many threads at once.
+ *  The values are kept in a ConcurrentHashMap, so reads never lock and register stays atomic: when several threads
+ *  register the same key only one of them wins and the rest are ignored like in Registry.
+ *  Unlike Registry null keys and values are not allowed. Set the nullValue before handing the registry to other threads,
+ *  and only freeze it once every thread is done registering. Enable the reverse lookup before other threads start
+ *  registering too. While it is enabled the writers take turns on the index, readers never lock: the index is a
+ *  ConcurrentHashMap in both modes (keyed by identity when asked to), and a reader can briefly see the old key of
+ *  a value. */
+public class ConcurrentRegistry<KEYTYPE, VALUE> extends Registry<KEYTYPE, VALUE> {
+	
+	/** Constructs a new ConcurrentRegistry with a name
+	 *  @param registryName the name of the registry, if null the registry will be called "unnamed_registry"
+	 */
+	public ConcurrentRegistry(String registryName) {
+		super(registryName, new ConcurrentHashMap<KEYTYPE, VALUE>());
+	}
+	
+	/** Registers the value with the key if the key hasn't been registered already. */
+	@Override
+	public void register(KEYTYPE key, VALUE value) {
+		checkNotFrozen();
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		boolean added;
+		if(reverse == null) {
+			added = registeredValues.putIfAbsent(key, value) == null;
+		} else {
+			synchronized(reverse) {
+				added = registeredValues.putIfAbsent(key, value) == null;
+				if(added) {
+					valueAdded(key, value);
+				}
+			}
+		}
+		if(!added) {
+			rejected(key);
+		}
+	}
+	
+	/** reRegisters the value with the key only if the key has already been registered (overwriting the old value). */
+	@Override
+	public void reRegister(KEYTYPE key, VALUE value) {
+		checkNotFrozen();
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse == null) {
+			registeredValues.replace(key, value);
+			return;
+		}
+		synchronized(reverse) {
+			VALUE old = registeredValues.replace(key, value);
+			if(old != null) {
+				valueRemoved(key, old);
+				valueAdded(key, value);
+			}
+		}
+	}
+	
+	/** Registers the value with the key without caring about if it has already been registered or not.
+	 *  Whether there was an old value is decided from what put returns, so racing calls keep the index right. */
+	@Override
+	public void register_force(KEYTYPE key, VALUE value) {
+		checkNotFrozen();
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse == null) {
+			registeredValues.put(key, value);
+			return;
+		}
+		synchronized(reverse) {
+			VALUE old = registeredValues.put(key, value);
+			if(old != null) {
+				valueRemoved(key, old);
+			}
+			valueAdded(key, value);
+		}
+	}
+	
+	/** Only the thread whose remove actually took the value out updates the index */
+	@Override
+	public void removeByKey(KEYTYPE key) {
+		checkNotFrozen();
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse == null) {
+			registeredValues.remove(key);
+			return;
+		}
+		synchronized(reverse) {
+			VALUE old = registeredValues.remove(key);
+			if(old != null) {
+				valueRemoved(key, old);
+			}
+		}
+	}
+	
+	@Override
+	Map<VALUE, ReverseEntry<KEYTYPE>> newReverseMap(boolean identity) {
+		if(identity) {
+			return new IdentityMap<VALUE, ReverseEntry<KEYTYPE>>();
+		}
+		return new ConcurrentHashMap<VALUE, ReverseEntry<KEYTYPE>>();
+	}
+	
+	@Override
+	void valueAdded(KEYTYPE key, VALUE value) {
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse != null) {
+			synchronized(reverse) {
+				super.valueAdded(key, value);
+			}
+		}
+	}
+	
+	@Override
+	void valueRemoved(KEYTYPE key, VALUE value) {
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse != null) {
+			synchronized(reverse) {
+				super.valueRemoved(key, value);
+			}
+		}
+	}
+	
+	/** A ConcurrentHashMap that matches its keys with == */
+	private static class IdentityMap<K, V> extends AbstractMap<K, V> {
+		private final ConcurrentHashMap<IdentityKey, V> map = new ConcurrentHashMap<IdentityKey, V>();
+		
+		@Override
+		public V get(Object key) {
+			return map.get(new IdentityKey(key));
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return map.containsKey(new IdentityKey(key));
+		}
+		
+		@Override
+		public V put(K key, V value) {
+			return map.put(new IdentityKey(key), value);
+		}
+		
+		@Override
+		public V remove(Object key) {
+			return map.remove(new IdentityKey(key));
+		}
+		
+		@Override
+		public void clear() {
+			map.clear();
+		}
+		
+		@Override
+		public int size() {
+			return map.size();
+		}
+		
+		@Override
+		public Set<Entry<K, V>> entrySet() {
+			return new AbstractSet<Entry<K, V>>() {
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					final Iterator<Entry<IdentityKey, V>> it = map.entrySet().iterator();
+					return new Iterator<Entry<K, V>>() {
+						@Override
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+						
+						@Override
+						@SuppressWarnings("unchecked")
+						public Entry<K, V> next() {
+							Entry<IdentityKey, V> entry = it.next();
+							return new SimpleImmutableEntry<K, V>((K) entry.getKey().key, entry.getValue());
+						}
+						
+						@Override
+						public void remove() {
+							it.remove();
+						}
+					};
+				}
+				
+				@Override
+				public int size() {
+					return map.size();
+				}
+			};
+		}
+	}
+	
+	private static class IdentityKey {
+		private final Object key;
+		
+		private IdentityKey(Object key) {
+			this.key = key;
+		}
+		
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(key);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey && ((IdentityKey) obj).key == key;
+		}
+	}
+	
+}
@@ -0,0 +1,12 @@
+package celestibytes.lib.util;
+
+import java.nio.ByteBuffer;
+
+/** Turns values into bytes and back, for the collections that keep values outside the heap */
+public interface ICodec<T> {
+	
+	public byte[] encode(T value);
+	
+	/** Decodes a value from the remaining bytes of data. The buffer may be a view of a mapped file, so don't keep it. */
+	public T decode(ByteBuffer data);
+}
@@ -0,0 +1,216 @@
+package celestibytes.lib.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/** A Registry that hands out a dense int id to every registered key, so the values can also be looked up with a plain
+ *  array index. Ids are never reused while the registry lives, removing a key only frees its slot.
+ *  Use getIdMap to save the ids and remapIds on the next run to get the same ids back for the same keys. */
+public class IdRegistry<KEYTYPE, VALUE> extends Registry<KEYTYPE, VALUE> {
+
+	/** Marks the slots in valuesById that have no value */
+	private static final Object FREE = new Object();
+
+	private final Map<KEYTYPE, Integer> ids = new HashMap<KEYTYPE, Integer>();
+	private Object[] keysById = new Object[16];
+	private Object[] valuesById = newSlots(16);
+	private int nextId = 0;
+
+	/** Ids from the last remapIds, keys registered later get their saved id back */
+	private Map<KEYTYPE, Integer> savedIds = new HashMap<KEYTYPE, Integer>();
+
+	/** Constructs a new IdRegistry with a name
+	 *  @param registryName the name of the registry, if null the registry will be called "unnamed_registry"
+	 */
+	public IdRegistry(String registryName) {
+		super(registryName);
+	}
+
+	/** Registers the value with the key if the key hasn't been registered already, the key gets the next free id. */
+	@Override
+	public void register(KEYTYPE key, VALUE value) {
+		boolean had = ids.containsKey(key);
+		super.register(key, value);
+		if(!had) {
+			assign(key, value);
+		}
+	}
+
+	@Override
+	public void reRegister(KEYTYPE key, VALUE value) {
+		super.reRegister(key, value);
+		Integer id = ids.get(key);
+		if(id != null) {
+			valuesById[id] = value;
+		}
+	}
+
+	@Override
+	public void register_force(KEYTYPE key, VALUE value) {
+		super.register_force(key, value);
+		Integer id = ids.get(key);
+		if(id != null) {
+			valuesById[id] = value;
+		} else {
+			assign(key, value);
+		}
+	}
+
+	/** Removes the key, its id stays taken */
+	@Override
+	public void removeByKey(KEYTYPE key) {
+		super.removeByKey(key);
+		Integer id = ids.remove(key);
+		if(id != null) {
+			keysById[id] = null;
+			valuesById[id] = FREE;
+		}
+	}
+
+	/** Removes every key. The ids from the last remapIds are kept, so keys registered again get their saved id back,
+	 *  and new keys start after the highest saved id (or from 0 without one) so they can't take a saved key's id */
+	@Override
+	public void clear() {
+		super.clear();
+		ids.clear();
+		int next = 0;
+		for(Integer id : savedIds.values()) {
+			next = Math.max(next, id + 1);
+		}
+		keysById = new Object[Math.max(16, next)];
+		valuesById = newSlots(keysById.length);
+		nextId = next;
+	}
+
+	/** Gets the value with the id, if there is none the nullValue is returned */
+	@SuppressWarnings("unchecked")
+	public VALUE getById(int id) {
+		if(metrics != null) {
+			metrics.lookup();
+		}
+		Object[] values = valuesById;
+		Object value = id < 0 || id >= values.length ? FREE : values[id];
+		if(value == FREE) {
+			if(metrics != null) {
+				metrics.miss(id);
+			}
+			return nullValue;
+		}
+		return (VALUE) value;
+	}
+
+	/** Returns the id of the key, -1 if the key isn't registered */
+	public int getId(KEYTYPE key) {
+		Integer id = ids.get(key);
+		return id == null ? -1 : id;
+	}
+
+	/** Returns the key with the id, null if there is none */
+	@SuppressWarnings("unchecked")
+	public KEYTYPE getKey(int id) {
+		return id < 0 || id >= nextId ? null : (KEYTYPE) keysById[id];
+	}
+
+	/** Every id handed out so far is below this */
+	public int getIdCount() {
+		return nextId;
+	}
+
+	/** Returns the ids of the registered keys in id order, for saving */
+	public Map<KEYTYPE, Integer> getIdMap() {
+		Map<KEYTYPE, Integer> ret = new LinkedHashMap<KEYTYPE, Integer>();
+		for(int id = 0; id < nextId; id++) {
+			if(valuesById[id] != FREE) {
+				@SuppressWarnings("unchecked")
+				KEYTYPE key = (KEYTYPE) keysById[id];
+				ret.put(key, id);
+			}
+		}
+		return ret;
+	}
+
+	/** Gives the registered keys the ids they had when the map was saved with getIdMap. Keys the saved map doesn't know get
+	 *  new ids after all the saved ones, and the saved ids of keys that aren't registered yet are kept for them.
+	 *  Returns a table from the old ids to the new ones, with -1 for ids that had no key, to fix up anything that
+	 *  stored the old ids. */
+	public int[] remapIds(Map<KEYTYPE, Integer> saved) {
+		checkNotFrozen();
+		int next = 0;
+		boolean[] used = new boolean[16];
+		for(Entry<KEYTYPE, Integer> entry : saved.entrySet()) {
+			int id = entry.getValue();
+			if(id < 0) {
+				throw new IllegalArgumentException("Negative id " + id + " for key \"" + entry.getKey() + "\"");
+			}
+			if(id >= used.length) {
+				used = Arrays.copyOf(used, Math.max(id + 1, used.length << 1));
+			}
+			if(used[id]) {
+				throw new IllegalArgumentException("Id " + id + " is saved for more than one key");
+			}
+			used[id] = true;
+			next = Math.max(next, id + 1);
+		}
+
+		int[] oldToNew = new int[nextId];
+		Arrays.fill(oldToNew, -1);
+		Object[] oldKeys = keysById;
+		Object[] oldValues = valuesById;
+		int oldCount = nextId;
+
+		savedIds = new HashMap<KEYTYPE, Integer>(saved);
+		ids.clear();
+		keysById = new Object[Math.max(16, next)];
+		valuesById = newSlots(keysById.length);
+		nextId = next;
+
+		// the keys the saved map knows first, so the new ids can't take their spots
+		for(int pass = 0; pass < 2; pass++) {
+			for(int old = 0; old < oldCount; old++) {
+				if(oldValues[old] == FREE) {
+					continue;
+				}
+				@SuppressWarnings("unchecked")
+				KEYTYPE key = (KEYTYPE) oldKeys[old];
+				if(savedIds.containsKey(key) == (pass == 0)) {
+					@SuppressWarnings("unchecked")
+					VALUE value = (VALUE) oldValues[old];
+					oldToNew[old] = assign(key, value);
+				}
+			}
+		}
+		return oldToNew;
+	}
+
+	private int assign(KEYTYPE key, VALUE value) {
+		Integer saved = savedIds.get(key);
+		int id;
+		if(saved != null && (saved >= nextId || valuesById[saved] == FREE)) {
+			id = saved;
+		} else {
+			id = nextId;
+		}
+		if(id >= valuesById.length) {
+			int size = Math.max(id + 1, valuesById.length << 1);
+			keysById = Arrays.copyOf(keysById, size);
+			Object[] grown = newSlots(size);
+			System.arraycopy(valuesById, 0, grown, 0, valuesById.length);
+			valuesById = grown;
+		}
+		nextId = Math.max(nextId, id + 1);
+		ids.put(key, id);
+		keysById[id] = key;
+		valuesById[id] = value;
+		return id;
+	}
+
+	private static Object[] newSlots(int size) {
+		Object[] slots = new Object[size];
+		Arrays.fill(slots, FREE);
+		return slots;
+	}
+
+}
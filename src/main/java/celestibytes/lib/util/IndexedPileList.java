@@ -0,0 +1,637 @@
+package celestibytes.lib.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** A PileList that can also be read, written, inserted into and removed from by index.
+ *  The items are kept in fixed size ring buffer chunks. The chunks in the middle sit in a treap keyed by position,
+ *  so get, set, insert and remove cost O(log n) plus a copy inside one chunk. The two end chunks are kept out of the
+ *  treap, which makes adding and removing at either end amortized O(1).
+ *  It doesn't extend PileList since there are no PileListItem nodes to hand out, so getPileListItemIterator and
+ *  PileListItem.remove() have no counterpart here. The limit, the item iterators and the streams work like PileList's. */
+public class IndexedPileList<VTYPE> {
+
+	/** Items per chunk, a power of two */
+	private static final int CHUNK_SIZE = 64;
+
+	private Chunk head = new Chunk();
+	private Node root;
+	private Chunk tail = new Chunk();
+
+	/** What is left of the treap after the last detachFirst or detachLast call */
+	private Node detached;
+
+	/** State of the xorshift generator that picks node priorities */
+	private int seed = 0x2545F491;
+
+	private int limit = -1;
+	private boolean limitMethod;
+	private boolean deleteLast;
+
+	public IndexedPileList() {
+
+	}
+
+	/** Set limitMethod to false to discard excess added items, true to delete the first or the last depending on deleteLast before adding new one */
+	public IndexedPileList(int limit, boolean limitMethod, boolean deleteLast) {
+		this.limit = limit;
+		this.limitMethod = limitMethod;
+		this.deleteLast = deleteLast;
+	}
+
+	public boolean isFull() {
+		return limit == -1 ? false : getCount() >= limit;
+	}
+
+	/** Returns the limit of the list, -1 if there is none */
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getCount() {
+		return head.size + total(root) + tail.size;
+	}
+
+	public boolean isEmpty() {
+		return getCount() == 0;
+	}
+
+	/** Adds the item to the end of the list, applying the limit like PileList.addItem does. addLast and addFirst ignore the limit. */
+	public void addItem(VTYPE item) {
+		if(limit != -1 && getCount() >= limit) {
+			if(!limitMethod) {
+				System.err.println("PileList full, remove the limit or remove items from the list!");
+				return;
+			}
+			if(deleteLast) {
+				popLast();
+			} else {
+				popFirst();
+			}
+		}
+		addLast(item);
+	}
+
+	public void addLast(VTYPE item) {
+		if(tail.size == CHUNK_SIZE) {
+			root = merge(root, newNode(tail));
+			tail = new Chunk();
+		}
+		tail.addLast(item);
+	}
+
+	public void addFirst(VTYPE item) {
+		if(head.size == CHUNK_SIZE) {
+			root = merge(newNode(head), root);
+			head = new Chunk();
+		}
+		head.addFirst(item);
+	}
+
+	/** Removes the first item on the list and then returns it */
+	@SuppressWarnings("unchecked")
+	public VTYPE popFirst() {
+		if(head.size == 0) {
+			if(root != null) {
+				head = detachFirst().chunk;
+			} else if(tail.size == 0) {
+				return null;
+			} else {
+				return (VTYPE) tail.pollFirst();
+			}
+		}
+		return (VTYPE) head.pollFirst();
+	}
+
+	/** Removes the last item on the list and then returns it */
+	@SuppressWarnings("unchecked")
+	public VTYPE popLast() {
+		if(tail.size == 0) {
+			if(root != null) {
+				tail = detachLast().chunk;
+			} else if(head.size == 0) {
+				return null;
+			} else {
+				return (VTYPE) head.pollLast();
+			}
+		}
+		return (VTYPE) tail.pollLast();
+	}
+
+	public VTYPE getFirst() {
+		return isEmpty() ? null : get(0);
+	}
+
+	public VTYPE getLast() {
+		int count = getCount();
+		return count == 0 ? null : get(count - 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	public VTYPE get(int index) {
+		checkIndex(index, getCount());
+		if(index < head.size) {
+			return (VTYPE) head.get(index);
+		}
+		index -= head.size;
+		int middle = total(root);
+		if(index >= middle) {
+			return (VTYPE) tail.get(index - middle);
+		}
+		Node node = root;
+		while(true) {
+			int left = total(node.left);
+			if(index < left) {
+				node = node.left;
+			} else if(index < left + node.chunk.size) {
+				return (VTYPE) node.chunk.get(index - left);
+			} else {
+				index -= left + node.chunk.size;
+				node = node.right;
+			}
+		}
+	}
+
+	/** Replaces the item at the index and returns the old one */
+	@SuppressWarnings("unchecked")
+	public VTYPE set(int index, VTYPE item) {
+		checkIndex(index, getCount());
+		if(index < head.size) {
+			return (VTYPE) head.set(index, item);
+		}
+		index -= head.size;
+		int middle = total(root);
+		if(index >= middle) {
+			return (VTYPE) tail.set(index - middle, item);
+		}
+		Node node = root;
+		while(true) {
+			int left = total(node.left);
+			if(index < left) {
+				node = node.left;
+			} else if(index < left + node.chunk.size) {
+				return (VTYPE) node.chunk.set(index - left, item);
+			} else {
+				index -= left + node.chunk.size;
+				node = node.right;
+			}
+		}
+	}
+
+	/** Inserts the item so that it ends up at the index, 0 and getCount() are allowed */
+	public void insert(int index, VTYPE item) {
+		int count = getCount();
+		if(index < 0 || index > count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Count: " + count);
+		}
+		if(index == 0) {
+			addFirst(item);
+			return;
+		}
+		if(index == count) {
+			addLast(item);
+			return;
+		}
+
+		if(index <= head.size) {
+			if(head.size < CHUNK_SIZE) {
+				head.insert(index, item);
+				return;
+			}
+			root = merge(newNode(head), root);
+			head = new Chunk();
+		}
+		index -= head.size;
+
+		int middle = total(root);
+		if(index >= middle) {
+			if(tail.size < CHUNK_SIZE) {
+				tail.insert(index - middle, item);
+				return;
+			}
+			root = merge(root, newNode(tail));
+			tail = new Chunk();
+		}
+
+		insertMiddle(index, item);
+	}
+
+	/** Removes the item at the index and returns it */
+	@SuppressWarnings("unchecked")
+	public VTYPE remove(int index) {
+		checkIndex(index, getCount());
+		if(index < head.size) {
+			return (VTYPE) head.remove(index);
+		}
+		index -= head.size;
+		int middle = total(root);
+		if(index >= middle) {
+			return (VTYPE) tail.remove(index - middle);
+		}
+
+		Node[] parts = split(root, index);
+		int offset = index - total(parts[0]);
+		Node node = detachFirst(parts[1]);
+		Object ret = node.chunk.remove(offset);
+		if(node.chunk.size > 0) {
+			node.update();
+			parts[1] = merge(node, detached);
+		} else {
+			parts[1] = detached;
+		}
+		detached = null;
+		root = merge(parts[0], parts[1]);
+		return (VTYPE) ret;
+	}
+
+	public void clear() {
+		head = new Chunk();
+		root = null;
+		tail = new Chunk();
+	}
+
+	/** Returns an iterator over the items, the list must not be modified while it is in use.
+	 *  The iterator moves a chunk at a time, so a full pass costs O(n) and not O(n log n). */
+	public Iterator<VTYPE> getItemIterator(boolean reversed) {
+		return reversed ? new ReverseItemIter() : Spliterators.iterator(spliterator());
+	}
+
+	/** Returns a SIZED and ORDERED Spliterator over the items, the list must not be modified while it is in use */
+	public Spliterator<VTYPE> spliterator() {
+		return new ItemSpliterator(0, getCount());
+	}
+
+	public Stream<VTYPE> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	public Stream<VTYPE> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/** Finds the chunk holding the index and puts it in out[0], returns the offset of the index in that chunk.
+	 *  Only reads the treap, so several iterators can do this at once. */
+	private int locate(int index, Chunk[] out) {
+		if(index < head.size) {
+			out[0] = head;
+			return index;
+		}
+		index -= head.size;
+		int middle = total(root);
+		if(index >= middle) {
+			out[0] = tail;
+			return index - middle;
+		}
+		Node node = root;
+		while(true) {
+			int left = total(node.left);
+			if(index < left) {
+				node = node.left;
+			} else if(index < left + node.chunk.size) {
+				out[0] = node.chunk;
+				return index - left;
+			} else {
+				index -= left + node.chunk.size;
+				node = node.right;
+			}
+		}
+	}
+
+	private void insertMiddle(int index, VTYPE item) {
+		Node[] parts = split(root, index);
+		int offset = index - total(parts[0]);
+		Node node;
+		Node rest;
+		if(offset == 0 && parts[0] != null) {
+			// on a chunk boundary, the end of the chunk before is as good a spot as the start of the one after
+			node = detachLast(parts[0]);
+			parts[0] = detached;
+			offset = node.chunk.size;
+			rest = parts[1];
+		} else {
+			node = detachFirst(parts[1]);
+			rest = detached;
+		}
+		detached = null;
+
+		if(node.chunk.size == CHUNK_SIZE) {
+			Chunk second = node.chunk.splitOff(CHUNK_SIZE / 2);
+			if(offset <= CHUNK_SIZE / 2) {
+				node.chunk.insert(offset, item);
+			} else {
+				second.insert(offset - CHUNK_SIZE / 2, item);
+			}
+			rest = merge(newNode(second), rest);
+		} else {
+			node.chunk.insert(offset, item);
+		}
+		node.update();
+		root = merge(parts[0], merge(node, rest));
+	}
+
+	private static void checkIndex(int index, int count) {
+		if(index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Count: " + count);
+		}
+	}
+
+	private Node newNode(Chunk chunk) {
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return new Node(chunk, seed);
+	}
+
+	private static int total(Node node) {
+		return node == null ? 0 : node.total;
+	}
+
+	private static Node merge(Node a, Node b) {
+		if(a == null) {
+			return b;
+		}
+		if(b == null) {
+			return a;
+		}
+		if(a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			a.update();
+			return a;
+		}
+		b.left = merge(a, b.left);
+		b.update();
+		return b;
+	}
+
+	/** Splits the treap into the chunks that end at or before the index and the rest */
+	private static Node[] split(Node node, int index) {
+		Node[] ret = new Node[2];
+		if(node == null) {
+			return ret;
+		}
+		int left = total(node.left);
+		if(left + node.chunk.size <= index) {
+			Node[] sub = split(node.right, index - left - node.chunk.size);
+			node.right = sub[0];
+			node.update();
+			ret[0] = node;
+			ret[1] = sub[1];
+		} else {
+			Node[] sub = split(node.left, index);
+			node.left = sub[1];
+			node.update();
+			ret[0] = sub[0];
+			ret[1] = node;
+		}
+		return ret;
+	}
+
+	private Node detachFirst() {
+		Node node = detachFirst(root);
+		root = detached;
+		detached = null;
+		return node;
+	}
+
+	private Node detachLast() {
+		Node node = detachLast(root);
+		root = detached;
+		detached = null;
+		return node;
+	}
+
+	/** Takes the leftmost node out of the treap, the remaining treap is left in detached */
+	private Node detachFirst(Node node) {
+		if(node.left == null) {
+			detached = node.right;
+			node.right = null;
+			node.update();
+			return node;
+		}
+		Node ret = detachFirst(node.left);
+		node.left = detached;
+		node.update();
+		detached = node;
+		return ret;
+	}
+
+	/** Takes the rightmost node out of the treap, the remaining treap is left in detached */
+	private Node detachLast(Node node) {
+		if(node.right == null) {
+			detached = node.left;
+			node.left = null;
+			node.update();
+			return node;
+		}
+		Node ret = detachLast(node.right);
+		node.right = detached;
+		node.update();
+		detached = node;
+		return ret;
+	}
+
+	/** Covers the items in [index, end), stepping through one chunk before looking up the next */
+	private class ItemSpliterator implements Spliterator<VTYPE> {
+
+		/** Ranges shorter than this aren't worth splitting */
+		private static final int MIN_SPLIT = 1024;
+
+		private final Chunk[] found = new Chunk[1];
+		private int index;
+		private final int end;
+		private Chunk chunk;
+		private int offset;
+
+		private ItemSpliterator(int index, int end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super VTYPE> action) {
+			if(index >= end) {
+				return false;
+			}
+			if(chunk == null || offset == chunk.size) {
+				offset = locate(index, found);
+				chunk = found[0];
+			}
+			Object item = chunk.get(offset++);
+			index++;
+			action.accept((VTYPE) item);
+			return true;
+		}
+
+		@Override
+		public Spliterator<VTYPE> trySplit() {
+			if(end - index < MIN_SPLIT) {
+				return null;
+			}
+			int mid = (index + end) >>> 1;
+			ItemSpliterator prefix = new ItemSpliterator(index, mid);
+			prefix.chunk = chunk;
+			prefix.offset = offset;
+			index = mid;
+			chunk = null;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+	}
+
+	/** Walks the items from the last to the first, a chunk at a time */
+	private class ReverseItemIter implements Iterator<VTYPE> {
+		private final Chunk[] found = new Chunk[1];
+		private int index = getCount() - 1;
+		private Chunk chunk;
+		private int offset = -1;
+
+		@Override
+		public boolean hasNext() {
+			return index >= 0;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public VTYPE next() {
+			if(index < 0) {
+				throw new NoSuchElementException();
+			}
+			if(offset < 0) {
+				offset = locate(index, found);
+				chunk = found[0];
+			}
+			index--;
+			return (VTYPE) chunk.get(offset--);
+		}
+	}
+
+	private static class Node {
+		private final Chunk chunk;
+		private final int priority;
+		private Node left;
+		private Node right;
+		/** Items in this subtree */
+		private int total;
+
+		private Node(Chunk chunk, int priority) {
+			this.chunk = chunk;
+			this.priority = priority;
+			this.total = chunk.size;
+		}
+
+		private void update() {
+			total = total(left) + chunk.size + total(right);
+		}
+	}
+
+	/** A ring buffer of at most CHUNK_SIZE items */
+	private static class Chunk {
+		private static final int MASK = CHUNK_SIZE - 1;
+
+		private final Object[] items = new Object[CHUNK_SIZE];
+		private int start;
+		private int size;
+
+		private Object get(int i) {
+			return items[(start + i) & MASK];
+		}
+
+		private Object set(int i, Object item) {
+			int slot = (start + i) & MASK;
+			Object ret = items[slot];
+			items[slot] = item;
+			return ret;
+		}
+
+		private void addFirst(Object item) {
+			start = (start - 1) & MASK;
+			items[start] = item;
+			size++;
+		}
+
+		private void addLast(Object item) {
+			items[(start + size) & MASK] = item;
+			size++;
+		}
+
+		private Object pollFirst() {
+			Object ret = items[start];
+			items[start] = null;
+			start = (start + 1) & MASK;
+			size--;
+			return ret;
+		}
+
+		private Object pollLast() {
+			int slot = (start + size - 1) & MASK;
+			Object ret = items[slot];
+			items[slot] = null;
+			size--;
+			return ret;
+		}
+
+		/** Shifts whichever side of i is shorter to make room */
+		private void insert(int i, Object item) {
+			if(i < size - i) {
+				start = (start - 1) & MASK;
+				for(int j = 0; j < i; j++) {
+					items[(start + j) & MASK] = items[(start + j + 1) & MASK];
+				}
+			} else {
+				for(int j = size; j > i; j--) {
+					items[(start + j) & MASK] = items[(start + j - 1) & MASK];
+				}
+			}
+			items[(start + i) & MASK] = item;
+			size++;
+		}
+
+		/** Closes the gap from whichever side of i is shorter */
+		private Object remove(int i) {
+			Object ret = items[(start + i) & MASK];
+			if(i < size - 1 - i) {
+				for(int j = i; j > 0; j--) {
+					items[(start + j) & MASK] = items[(start + j - 1) & MASK];
+				}
+				items[start] = null;
+				start = (start + 1) & MASK;
+			} else {
+				for(int j = i; j < size - 1; j++) {
+					items[(start + j) & MASK] = items[(start + j + 1) & MASK];
+				}
+				items[(start + size - 1) & MASK] = null;
+			}
+			size--;
+			return ret;
+		}
+
+		/** Moves the items from index from onwards into a new chunk */
+		private Chunk splitOff(int from) {
+			Chunk ret = new Chunk();
+			for(int j = from; j < size; j++) {
+				int slot = (start + j) & MASK;
+				ret.items[j - from] = items[slot];
+				items[slot] = null;
+			}
+			ret.size = size - from;
+			size = from;
+			return ret;
+		}
+	}
+
+}
@@ -0,0 +1,243 @@
+package celestibytes.lib.util;
+
+import java.util.Arrays;
+
+/** A Registry with int keys that doesn't box them. The keys live in an open addressing table (linear probing, at most
+ *  half full), so a lookup is usually a single probe. Behaves like Registry: register ignores keys that are already
+ *  there, reRegister only replaces and getValue returns the nullValue for keys that aren't registered. */
+public class IntRegistry<VALUE> {
+	
+	private static final String DEFAULT_REGISTRY_NAME = "unnamed_registry";
+	
+	/** 0 marks a free slot, so the key 0 is kept outside the table */
+	private int[] keys = new int[16];
+	private Object[] values = new Object[16];
+	private int mask = 15;
+	private int size = 0;
+	
+	private boolean hasZeroKey = false;
+	private VALUE zeroValue = null;
+	
+	VALUE nullValue = null;
+	
+	private String registryName = null;
+	
+	/** Constructs a new IntRegistry with a name
+	 *  @param registryName the name of the registry, if null the registry will be called "unnamed_registry"
+	 */
+	public IntRegistry(String registryName) {
+		if(registryName != null) {
+			this.registryName = registryName;
+		} else {
+			this.registryName = DEFAULT_REGISTRY_NAME;
+		}
+	}
+	
+	/** Registers the value with the key if the key hasn't been registered already. */
+	public void register(int key, VALUE value) {
+		if(key == 0) {
+			if(!hasZeroKey) {
+				hasZeroKey = true;
+				zeroValue = value;
+			} else {
+				alreadyRegistered(key);
+			}
+			return;
+		}
+		int slot = find(key);
+		if(keys[slot] == key) {
+			alreadyRegistered(key);
+		} else {
+			insert(slot, key, value);
+		}
+	}
+	
+	/** reRegisters the value with the key only if the key has already been registered (overwriting the old value). */
+	public void reRegister(int key, VALUE value) {
+		if(key == 0) {
+			if(hasZeroKey) {
+				zeroValue = value;
+			}
+			return;
+		}
+		int slot = find(key);
+		if(keys[slot] == key) {
+			values[slot] = value;
+		}
+	}
+	
+	/** Registers the value with the key without caring about if it has already been registered or not. */
+	public void register_force(int key, VALUE value) {
+		if(key == 0) {
+			hasZeroKey = true;
+			zeroValue = value;
+			return;
+		}
+		int slot = find(key);
+		if(keys[slot] == key) {
+			values[slot] = value;
+		} else {
+			insert(slot, key, value);
+		}
+	}
+	
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, null);
+		size = 0;
+		hasZeroKey = false;
+		zeroValue = null;
+	}
+	
+	public boolean containsKey(int key) {
+		if(key == 0) {
+			return hasZeroKey;
+		}
+		return keys[find(key)] == key;
+	}
+	
+	public boolean containsValue(VALUE value) {
+		if(hasZeroKey && equal(zeroValue, value)) {
+			return true;
+		}
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != 0 && equal(values[i], value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/** Gets the value of the key, if nullValue is set that will be returned instead of null */
+	@SuppressWarnings("unchecked")
+	public VALUE getValue(int key) {
+		if(key == 0) {
+			return hasZeroKey ? zeroValue : nullValue;
+		}
+		int[] keys = this.keys;
+		int mask = this.mask;
+		int slot = mix(key) & mask;
+		while(true) {
+			int k = keys[slot];
+			if(k == key) {
+				return (VALUE) values[slot];
+			}
+			if(k == 0) {
+				return nullValue;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+	
+	public void removeByKey(int key) {
+		if(key == 0) {
+			hasZeroKey = false;
+			zeroValue = null;
+			return;
+		}
+		int slot = find(key);
+		if(keys[slot] != key) {
+			return;
+		}
+		// shift the following keys of the run back so no probe sequence gets cut short
+		int free = slot;
+		int next = (free + 1) & mask;
+		while(keys[next] != 0) {
+			int home = mix(keys[next]) & mask;
+			if(((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[free] = 0;
+		values[free] = null;
+		size--;
+	}
+	
+	/** Returns the amount of registered keys */
+	public int getCount() {
+		return hasZeroKey ? size + 1 : size;
+	}
+	
+	/** Returns the registered keys in no particular order */
+	public int[] getKeys() {
+		int[] ret = new int[getCount()];
+		int n = 0;
+		if(hasZeroKey) {
+			ret[n++] = 0;
+		}
+		for(int k : keys) {
+			if(k != 0) {
+				ret[n++] = k;
+			}
+		}
+		return ret;
+	}
+	
+	/** Sets the nullValue which will be returned when trying to get an unregistered value */
+	public void setNullValue(VALUE nullValue) {
+		this.nullValue = nullValue;
+	}
+	
+	/** Sets the nullValue to null, same as calling setNullValue with null */
+	public void clearNullValue() {
+		this.nullValue = null;
+	}
+	
+	public String getRegistryName() {
+		return registryName;
+	}
+	
+	/** Returns the slot of the key, or the free slot where it would go */
+	private int find(int key) {
+		int slot = mix(key) & mask;
+		while(keys[slot] != key && keys[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private void insert(int slot, int key, VALUE value) {
+		keys[slot] = key;
+		values[slot] = value;
+		if(++size > keys.length >> 1) {
+			rehash(keys.length << 1);
+		}
+	}
+	
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			int k = oldKeys[i];
+			if(k != 0) {
+				int slot = mix(k) & mask;
+				while(keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = k;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+	
+	private void alreadyRegistered(int key) {
+		System.err.println("Registry \"" + registryName + "\" already contains key \"" + key + "\", ignoring.");
+	}
+	
+	private static boolean equal(Object a, Object b) {
+		return a == b || (a != null && a.equals(b));
+	}
+	
+	/** Spreads sequential ids over the table */
+	private static int mix(int x) {
+		x *= 0x9E3779B9;
+		return x ^ (x >>> 16);
+	}
+	
+}
@@ -0,0 +1,211 @@
+package celestibytes.lib.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/** A read-only table built on a perfect hash of its keys (hash and displace).
+ *  The keys are split into small buckets by their hash and every bucket gets a displacement that sends its keys to
+ *  free slots, a lookup is one hash, one displacement load and one slot compare. There are a quarter more slots than
+ *  keys, so the last buckets to be placed still find free slots quickly.
+ *  Keys with equal hash codes can't be told apart this way and go into a small overflow HashMap instead, as do the
+ *  null key and the keys of a bucket that finds no free slots. Only keys that miss in the table are looked up there. */
+final class PerfectHashTable<KEYTYPE, VALUE> {
+
+	/** Displacements tried per bucket before its keys go to the overflow map */
+	private static final int MAX_DISPLACEMENT = 1 << 16;
+
+	private final int bucketShift;
+	private final int[] displacements;
+	private final Object[] keys;
+	private final Object[] values;
+	/** Keys the table couldn't place, null if there are none */
+	private final Map<Object, Object> overflow;
+
+	private PerfectHashTable(int bucketShift, int[] displacements, Object[] keys, Object[] values, Map<Object, Object> overflow) {
+		this.bucketShift = bucketShift;
+		this.displacements = displacements;
+		this.keys = keys;
+		this.values = values;
+		this.overflow = overflow;
+	}
+
+	static <KEYTYPE, VALUE> PerfectHashTable<KEYTYPE, VALUE> build(Map<KEYTYPE, VALUE> map) {
+		Map<Object, Object> overflow = new HashMap<Object, Object>();
+		int n = map.size();
+		Object[] allKeys = new Object[n];
+		Object[] allValues = new Object[n];
+		int[] allHashes = new int[n];
+		int i = 0;
+		for(Entry<KEYTYPE, VALUE> entry : map.entrySet()) {
+			allKeys[i] = entry.getKey();
+			allValues[i] = entry.getValue();
+			allHashes[i] = hash(entry.getKey());
+			i++;
+		}
+
+		// every key that shares its hash with another one goes to the overflow map
+		int[] sorted = allHashes.clone();
+		Arrays.sort(sorted);
+		Object[] keys = new Object[n];
+		Object[] values = new Object[n];
+		int[] hashes = new int[n];
+		int placed = 0;
+		for(i = 0; i < n; i++) {
+			int at = Arrays.binarySearch(sorted, allHashes[i]);
+			boolean shared = (at > 0 && sorted[at - 1] == allHashes[i]) || (at + 1 < n && sorted[at + 1] == allHashes[i]);
+			// empty slots hold null, so a null key can't be told from one and goes there too
+			if(shared || allKeys[i] == null) {
+				overflow.put(allKeys[i], allValues[i]);
+			} else {
+				keys[placed] = allKeys[i];
+				values[placed] = allValues[i];
+				hashes[placed] = allHashes[i];
+				placed++;
+			}
+		}
+		n = placed;
+		int slotCount = n + (n >>> 2);
+
+		// about two keys per bucket, a power of two so the bucket is just the top bits of the hash
+		int bucketBits = 0;
+		while((1 << bucketBits) < (n + 1) / 2) {
+			bucketBits++;
+		}
+		int bucketShift = 32 - bucketBits;
+		int buckets = 1 << bucketBits;
+
+		// counting sort of the keys by bucket
+		int[] bucketStart = new int[buckets + 1];
+		for(i = 0; i < n; i++) {
+			bucketStart[bucket(hashes[i], bucketShift) + 1]++;
+		}
+		for(int b = 0; b < buckets; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		int[] fill = Arrays.copyOf(bucketStart, buckets);
+		int[] byBucket = new int[n];
+		for(i = 0; i < n; i++) {
+			byBucket[fill[bucket(hashes[i], bucketShift)]++] = i;
+		}
+
+		// the biggest buckets are the hardest to place, so they go first
+		int maxSize = 0;
+		for(int b = 0; b < buckets; b++) {
+			maxSize = Math.max(maxSize, bucketStart[b + 1] - bucketStart[b]);
+		}
+		int[] order = new int[buckets];
+		int o = 0;
+		for(int size = maxSize; size > 0; size--) {
+			for(int b = 0; b < buckets; b++) {
+				if(bucketStart[b + 1] - bucketStart[b] == size) {
+					order[o++] = b;
+				}
+			}
+		}
+
+		int[] displacements = new int[buckets];
+		boolean[] taken = new boolean[slotCount];
+		Object[] slotKeys = new Object[slotCount];
+		Object[] slotValues = new Object[slotCount];
+		int[] slots = new int[16];
+		for(int ob = 0; ob < o; ob++) {
+			int b = order[ob];
+			int from = bucketStart[b];
+			int size = bucketStart[b + 1] - from;
+			if(slots.length < size) {
+				slots = new int[size];
+			}
+			int d = 0;
+			search:
+			while(d < MAX_DISPLACEMENT) {
+				for(int k = 0; k < size; k++) {
+					int slot = slot(hashes[byBucket[from + k]], d, slotCount);
+					if(taken[slot]) {
+						d++;
+						continue search;
+					}
+					for(int j = 0; j < k; j++) {
+						if(slots[j] == slot) {
+							d++;
+							continue search;
+						}
+					}
+					slots[k] = slot;
+				}
+				break;
+			}
+			if(d == MAX_DISPLACEMENT) {
+				// practically never happens with the spare slots, the lookups of this bucket land on other keys
+				for(int k = 0; k < size; k++) {
+					overflow.put(keys[byBucket[from + k]], values[byBucket[from + k]]);
+				}
+				continue;
+			}
+			displacements[b] = d;
+			for(int k = 0; k < size; k++) {
+				taken[slots[k]] = true;
+				slotKeys[slots[k]] = keys[byBucket[from + k]];
+				slotValues[slots[k]] = values[byBucket[from + k]];
+			}
+		}
+
+		return new PerfectHashTable<KEYTYPE, VALUE>(bucketShift, displacements, slotKeys, slotValues, overflow.isEmpty() ? null : overflow);
+	}
+
+	/** Returns the value of the key, or missing if the key isn't in the table */
+	@SuppressWarnings("unchecked")
+	VALUE get(Object key, VALUE missing) {
+		if(keys.length > 0) {
+			int h = hash(key);
+			int slot = slot(h, displacements[bucket(h, bucketShift)], keys.length);
+			Object k = keys[slot];
+			if(k != null && (k == key || k.equals(key))) {
+				return (VALUE) values[slot];
+			}
+		}
+		if(overflow != null) {
+			Object value = overflow.get(key);
+			return value != null || overflow.containsKey(key) ? (VALUE) value : missing;
+		}
+		return missing;
+	}
+
+	boolean containsKey(Object key) {
+		if(keys.length > 0) {
+			int h = hash(key);
+			int slot = slot(h, displacements[bucket(h, bucketShift)], keys.length);
+			Object k = keys[slot];
+			if(k != null && (k == key || k.equals(key))) {
+				return true;
+			}
+		}
+		return overflow != null && overflow.containsKey(key);
+	}
+
+	private static int hash(Object key) {
+		return key == null ? 0 : mix(key.hashCode());
+	}
+
+	private static int bucket(int hash, int bucketShift) {
+		// a shift of 32 is a shift of 0 in Java, which only happens with a single bucket
+		return bucketShift == 32 ? 0 : hash >>> bucketShift;
+	}
+
+	/** Maps the rehashed key evenly onto [0, n) without a division */
+	private static int slot(int hash, int displacement, int n) {
+		int h = mix(hash + displacement * 0x9E3779B9);
+		return (int) (((h & 0xFFFFFFFFL) * n) >>> 32);
+	}
+
+	private static int mix(int x) {
+		x ^= x >>> 16;
+		x *= 0x85EBCA6B;
+		x ^= x >>> 13;
+		x *= 0xC2B2AE35;
+		x ^= x >>> 16;
+		return x;
+	}
+
+}
@@ -1,6 +1,13 @@
 package celestibytes.lib.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class PileList<VTYPE> {
 	
@@ -39,9 +46,20 @@ public class PileList<VTYPE> {
 		return limit == -1 ? false : count >= limit;
 	}
 	
+	public boolean isEmpty() {
+		return count == 0;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	/** Returns the limit of the list, -1 if there is none */
+	public int getLimit() {
+		return limit;
+	}
+	
 	public void addItem(VTYPE item) {
-		PileListItem<VTYPE> buf = new PileListItem<VTYPE>(this, item, last, null);
-		
 		if(count >= limit && limit != -1) {
 			if(limitMethod) {
 				if(deleteLast) {
@@ -55,6 +73,8 @@ public class PileList<VTYPE> {
 			}
 		}
 		
+		PileListItem<VTYPE> buf = new PileListItem<VTYPE>(this, item, last, null);
+		
 		if(first == null) {
 			first = buf;
 		} else {
@@ -103,7 +123,9 @@ public class PileList<VTYPE> {
 			return;
 		}
 		if(last.prev == null) {
+			first = null;
 			last = null;
+			count--;
 			return;
 		}
 		
@@ -118,6 +140,8 @@ public class PileList<VTYPE> {
 		}
 		if(first.next == null) {
 			first = null;
+			last = null;
+			count--;
 			return;
 		}
 		first.next.prev = null;
@@ -125,6 +149,148 @@ public class PileList<VTYPE> {
 		count--;
 	}
 	
+	/** Adds all the items to the end of the list in one go, the limit is applied as if they were added one by one */
+	public void addAll(Collection<? extends VTYPE> items) {
+		Object[] arr = items.toArray();
+		addRun(arr, 0, arr.length);
+	}
+	
+	/** Adds all the items to the end of the list in one go, the limit is applied as if they were added one by one */
+	public void addAll(VTYPE[] items) {
+		addRun(items, 0, items.length);
+	}
+	
+	/** Removes up to maxItems items from the start of the list and hands them to the consumer in order.
+	 *  The items are unlinked before the consumer sees them. Returns the amount of items removed. */
+	public int drainTo(Consumer<? super VTYPE> consumer, int maxItems) {
+		int n = Math.min(maxItems, count);
+		if(n <= 0) {
+			return 0;
+		}
+		PileListItem<VTYPE> node = unlinkFirst(n);
+		while(node != null) {
+			consumer.accept(node.item);
+			node = node.next;
+		}
+		return n;
+	}
+	
+	/** Removes items from the start of the list into the array until either runs out. Returns the amount of items removed. */
+	public int drainTo(VTYPE[] array) {
+		int n = Math.min(array.length, count);
+		if(n <= 0) {
+			return 0;
+		}
+		PileListItem<VTYPE> node = unlinkFirst(n);
+		for(int i = 0; i < n; i++) {
+			array[i] = node.item;
+			node = node.next;
+		}
+		return n;
+	}
+	
+	/** Removes up to n items from the start of the list and returns them in order */
+	public List<VTYPE> popFirst(int n) {
+		final List<VTYPE> ret = new ArrayList<VTYPE>(Math.max(Math.min(n, count), 0));
+		drainTo(new Consumer<VTYPE>() {
+			@Override
+			public void accept(VTYPE item) {
+				ret.add(item);
+			}
+		}, n);
+		return ret;
+	}
+	
+	/** Links items[from..to) to the end of the list, applying the limit the same way n calls to addItem would */
+	@SuppressWarnings("unchecked")
+	void addRun(Object[] items, int from, int to) {
+		int n = to - from;
+		if(n <= 0) {
+			return;
+		}
+		
+		if(limit != -1 && n > limit - count) {
+			int free = Math.max(limit - count, 0);
+			if(!limitMethod) {
+				System.err.println("PileList full, remove the limit or remove items from the list!");
+				to = from + free;
+			} else if(deleteLast) {
+				// every add past the limit replaces the last item, so only the final one survives
+				if(free == 0) {
+					removeLast();
+				} else {
+					linkRun(items, from, from + free - 1);
+				}
+				linkRun(items, to - 1, to);
+				return;
+			} else {
+				// the oldest items get pushed out from the start
+				int overflow = n - free;
+				if(overflow >= count) {
+					from += overflow - count;
+					unlinkFirst(count);
+				} else {
+					unlinkFirst(overflow);
+				}
+			}
+		}
+		
+		linkRun(items, from, to);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void linkRun(Object[] items, int from, int to) {
+		if(from >= to) {
+			return;
+		}
+		PileListItem<VTYPE> runFirst = new PileListItem<VTYPE>(this, (VTYPE) items[from], last, null);
+		PileListItem<VTYPE> runLast = runFirst;
+		for(int i = from + 1; i < to; i++) {
+			PileListItem<VTYPE> buf = new PileListItem<VTYPE>(this, (VTYPE) items[i], runLast, null);
+			runLast.next = buf;
+			runLast = buf;
+		}
+		
+		if(first == null) {
+			first = runFirst;
+		} else {
+			last.next = runFirst;
+		}
+		last = runLast;
+		count += to - from;
+	}
+	
+	/** Cuts the first n items (n <= count) off the list and returns the first of them, the run ends in a null next */
+	PileListItem<VTYPE> unlinkFirst(int n) {
+		if(n <= 0) {
+			return null;
+		}
+		PileListItem<VTYPE> runFirst = first;
+		PileListItem<VTYPE> runLast = first;
+		for(int i = 1; i < n; i++) {
+			runLast = runLast.next;
+		}
+		
+		first = runLast.next;
+		if(first == null) {
+			last = null;
+		} else {
+			first.prev = null;
+		}
+		runLast.next = null;
+		count -= n;
+		return runFirst;
+	}
+	
+	/** Copies the items in order into dst, which must have room for count items */
+	void copyTo(Object[] dst) {
+		PileListItem<VTYPE> node = first;
+		for(int i = 0; i < count; i++) {
+			dst[i] = node.item;
+			node = node.next;
+		}
+	}
+	
 	public Iterator<PileListItem<VTYPE>> getPileListItemIterator(boolean reversed) {
 		if(reversed) {
 			revIter.setCurr(last);
@@ -147,6 +313,19 @@ public class PileList<VTYPE> {
 		return iiter;
 	}
 	
+	/** Returns a SIZED and ORDERED Spliterator over the items, the list must not be modified while it is in use */
+	public Spliterator<VTYPE> spliterator() {
+		return new ItemSpliterator<VTYPE>(first, count);
+	}
+	
+	public Stream<VTYPE> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	public Stream<VTYPE> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	
 	public static class PileListItem<VTYPE> {
 		private final PileList<VTYPE> owner;
 		private VTYPE item;
@@ -185,7 +364,10 @@ public class PileList<VTYPE> {
 		}
 		
 		public void remove() {
-			if(owner.first == this) {
+			if(owner.first == this && owner.last == this) {
+				owner.first = null;
+				owner.last = null;
+			} else if(owner.first == this) {
 				owner.first = owner.first.next;
 				owner.first.prev = null;
 			} else if(owner.last == this) {
@@ -360,4 +542,71 @@ public class PileList<VTYPE> {
 		
 	}
 	
+	/** Covers a run of remaining items starting from curr. Splitting walks to the middle of the run
+	 *  and hands out the first half, both halves keep an exact size. */
+	private static class ItemSpliterator<VTYPE> implements Spliterator<VTYPE> {
+		
+		/** Runs shorter than this aren't worth the walk to their middle */
+		private static final int MIN_SPLIT = 1024;
+		
+		private PileListItem<VTYPE> curr;
+		private int remaining;
+		
+		private ItemSpliterator(PileListItem<VTYPE> curr, int remaining) {
+			this.curr = curr;
+			this.remaining = remaining;
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super VTYPE> action) {
+			if(remaining <= 0) {
+				return false;
+			}
+			VTYPE item = curr.item;
+			curr = curr.next;
+			remaining--;
+			action.accept(item);
+			return true;
+		}
+		
+		@Override
+		public void forEachRemaining(Consumer<? super VTYPE> action) {
+			PileListItem<VTYPE> node = curr;
+			int n = remaining;
+			curr = null;
+			remaining = 0;
+			for(int i = 0; i < n; i++) {
+				action.accept(node.item);
+				node = node.next;
+			}
+		}
+		
+		@Override
+		public Spliterator<VTYPE> trySplit() {
+			if(remaining < MIN_SPLIT) {
+				return null;
+			}
+			int half = remaining >>> 1;
+			PileListItem<VTYPE> mid = curr;
+			for(int i = 0; i < half; i++) {
+				mid = mid.next;
+			}
+			ItemSpliterator<VTYPE> prefix = new ItemSpliterator<VTYPE>(curr, half);
+			curr = mid;
+			remaining -= half;
+			return prefix;
+		}
+		
+		@Override
+		public long estimateSize() {
+			return remaining;
+		}
+		
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+		
+	}
+	
 }
@@ -1,7 +1,11 @@
 package celestibytes.lib.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -14,72 +18,302 @@ public class Registry<KEYTYPE, VALUE> {
 	
 	private String registryName = null;
 	
+	/** Index from the values back to their keys, null unless enableReverseLookup has been called */
+	Map<VALUE, ReverseEntry<KEYTYPE>> keysByValue = null;
+	
+	/** Set by freeze, after that all lookups go through it and the map is no longer changed */
+	PerfectHashTable<KEYTYPE, VALUE> frozen = null;
+	
+	/** Null unless metrics are enabled */
+	RegistryMetrics metrics = null;
+	
 	/** Constructs a new Registry with a name
 	 *  @param registryName the name of the registry, if null the registry will be called "unnamed_registry"
 	 */
 	public Registry(String registryName) {
-		registeredValues = new HashMap<KEYTYPE, VALUE>();
+		this(registryName, new HashMap<KEYTYPE, VALUE>());
+	}
+	
+	/** Constructs a new Registry that keeps the values in the given map */
+	Registry(String registryName, Map<KEYTYPE, VALUE> registeredValues) {
+		this(registryName, registeredValues, RegistryMetrics.enabledByDefault());
+	}
+	
+	/** Constructs a new Registry that keeps the values in the given map, with metrics only if defaultMetrics is set.
+	 *  For owners that bring their own metrics, so no counters are made just to be thrown away. */
+	Registry(String registryName, Map<KEYTYPE, VALUE> registeredValues, boolean defaultMetrics) {
+		this.registeredValues = registeredValues;
 		if(registryName != null) {
 			this.registryName = registryName;
 		} else {
 			this.registryName = DEFAULT_REGISTRY_NAME;
 		}
+		if(defaultMetrics) {
+			this.metrics = new RegistryMetrics(this.registryName);
+		}
 	}
 	
 	/** Registers the value with the key if the key hasn't been registered already. */
 	public void register(KEYTYPE key, VALUE value) {
+		checkNotFrozen();
 		if(!registeredValues.containsKey(key)) {
 			registeredValues.put(key, value);
+			valueAdded(key, value);
 		} else {
-			System.err.println("Registry \"" + registryName + "\" already contains key \"" + key.toString() + "\", ignoring.");
+			rejected(key);
 		}
 	}
 	
 	/** reRegisters the value with the key only if the key has already been registered (overwriting the old value). */
 	public void reRegister(KEYTYPE key, VALUE value) {
+		checkNotFrozen();
 		if(registeredValues.containsKey(key)) {
-			registeredValues.put(key, value);
+			valueRemoved(key, registeredValues.put(key, value));
+			valueAdded(key, value);
 		}
 	}
 	
 	/** Registers the value with the key without caring about if it has already been registered or not. */
 	public void register_force(KEYTYPE key, VALUE value) {
-		registeredValues.put(key, value);
+		checkNotFrozen();
+		boolean had = registeredValues.containsKey(key);
+		VALUE old = registeredValues.put(key, value);
+		if(had) {
+			valueRemoved(key, old);
+		}
+		valueAdded(key, value);
 	}
 	
 	/** Note: uses HashMap's clear method. */
 	public void clear() {
+		checkNotFrozen();
 		registeredValues.clear();
+		if(keysByValue != null) {
+			keysByValue.clear();
+		}
+		if(metrics != null) {
+			metrics.reloaded();
+		}
 	}
 	
 	public boolean containsKey(KEYTYPE key) {
+		PerfectHashTable<KEYTYPE, VALUE> table = frozen;
+		if(table != null) {
+			return table.containsKey(key);
+		}
 		return registeredValues.containsKey(key);
 	}
 	
+	/** Uses the reverse lookup if it's enabled, otherwise goes through every value */
 	public boolean containsValue(VALUE value) {
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse != null) {
+			return reverse.containsKey(value);
+		}
 		return registeredValues.containsValue(value);
 	}
 	
 	/** Gets the value of the key, if nullValue is set that will be returned instead of null */
 	public VALUE getValue(KEYTYPE key) {
-		return registeredValues.containsKey(key) ? registeredValues.get(key) : this.nullValue;
+		if(metrics != null) {
+			return getValueCounted(key, metrics);
+		}
+		PerfectHashTable<KEYTYPE, VALUE> table = frozen;
+		if(table != null) {
+			return table.get(key, nullValue);
+		}
+		VALUE value = registeredValues.get(key);
+		// a second lookup only for keys that are missing or registered with null
+		if(value == null && !registeredValues.containsKey(key)) {
+			return this.nullValue;
+		}
+		return value;
+	}
+	
+	private VALUE getValueCounted(KEYTYPE key, RegistryMetrics metrics) {
+		metrics.lookup();
+		PerfectHashTable<KEYTYPE, VALUE> table = frozen;
+		VALUE value;
+		boolean found;
+		if(table != null) {
+			value = table.get(key, null);
+			found = value != null || table.containsKey(key);
+		} else {
+			value = registeredValues.get(key);
+			found = value != null || registeredValues.containsKey(key);
+		}
+		if(!found) {
+			metrics.miss(key);
+			return this.nullValue;
+		}
+		return value;
 	}
 	
 	/** Sets the nullValue which will be returned when trying to get an unregistered value */
 	public void setNullValue(VALUE nullValue) {
+		checkNotFrozen();
 		this.nullValue = nullValue;
 	}
 	
 	/** Sets the nullValue to null, same as calling setNullValue with null */
 	public void clearNullValue() {
+		checkNotFrozen();
 		this.nullValue = null;
 	}
 	
+	public String getRegistryName() {
+		return registryName;
+	}
+	
+	/** Starts counting lookups, misses, rejected registers and clears, and returns the counters.
+	 *  Enable this before handing the registry to other threads. */
+	public RegistryMetrics enableMetrics() {
+		if(metrics == null) {
+			checkNotFrozen();
+			metrics = new RegistryMetrics(registryName);
+		}
+		return metrics;
+	}
+	
+	/** Returns the counters, null if metrics aren't enabled */
+	public RegistryMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/** After freeze the iterator can't remove entries */
 	public Iterator<Entry<KEYTYPE, VALUE>> getMapIterator() {
+		if(frozen != null) {
+			return Collections.unmodifiableMap(registeredValues).entrySet().iterator();
+		}
 		return registeredValues.entrySet().iterator();
 	}
 	
+	/** Makes the registry read-only and compiles it into a perfect hash table, so lookups cost one hash and an array load.
+	 *  Call this once registration is done, registering, removing or clearing afterwards throws an IllegalStateException,
+	 *  and so do setNullValue, clearNullValue, enableMetrics and enableReverseLookup, so a frozen registry looks the same
+	 *  to everyone holding it. */
+	public void freeze() {
+		if(frozen == null) {
+			frozen = PerfectHashTable.build(registeredValues);
+		}
+	}
+	
+	public boolean isFrozen() {
+		return frozen != null;
+	}
+	
+	/** Called when register is given a key that's already there */
+	void rejected(KEYTYPE key) {
+		System.err.println("Registry \"" + registryName + "\" already contains key \"" + key.toString() + "\", ignoring.");
+		if(metrics != null) {
+			metrics.rejected(key);
+		}
+	}
+	
+	void checkNotFrozen() {
+		if(frozen != null) {
+			throw new IllegalStateException("Registry \"" + registryName + "\" is frozen");
+		}
+	}
+	
 	public void removeByKey(KEYTYPE key) {
-		registeredValues.remove(key);
+		checkNotFrozen();
+		boolean had = registeredValues.containsKey(key);
+		VALUE old = registeredValues.remove(key);
+		if(had) {
+			valueRemoved(key, old);
+		}
+	}
+	
+	/** Keeps an index from the values back to their keys, which makes getKeyOf and containsValue O(1).
+	 *  With identity set the values are matched with ==, otherwise with equals (containsValue follows the same rule).
+	 *  If the same value is registered under several keys getKeyOf returns one of them. */
+	public void enableReverseLookup(boolean identity) {
+		checkNotFrozen();
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = newReverseMap(identity);
+		for(Entry<KEYTYPE, VALUE> entry : registeredValues.entrySet()) {
+			ReverseEntry<KEYTYPE> reverseEntry = reverse.get(entry.getValue());
+			if(reverseEntry == null) {
+				reverse.put(entry.getValue(), new ReverseEntry<KEYTYPE>(entry.getKey()));
+			} else {
+				reverseEntry.addKey(entry.getKey());
+			}
+		}
+		keysByValue = reverse;
+	}
+	
+	/** Returns the key the value is registered with, null if it isn't registered or reverse lookups aren't enabled */
+	public KEYTYPE getKeyOf(VALUE value) {
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse == null) {
+			return null;
+		}
+		ReverseEntry<KEYTYPE> entry = reverse.get(value);
+		return entry == null ? null : entry.key;
+	}
+	
+	Map<VALUE, ReverseEntry<KEYTYPE>> newReverseMap(boolean identity) {
+		return identity ? new IdentityHashMap<VALUE, ReverseEntry<KEYTYPE>>() : new HashMap<VALUE, ReverseEntry<KEYTYPE>>();
+	}
+	
+	void valueAdded(KEYTYPE key, VALUE value) {
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse == null) {
+			return;
+		}
+		ReverseEntry<KEYTYPE> entry = reverse.get(value);
+		if(entry == null) {
+			reverse.put(value, new ReverseEntry<KEYTYPE>(key));
+		} else {
+			entry.addKey(key);
+		}
+	}
+	
+	void valueRemoved(KEYTYPE key, VALUE value) {
+		Map<VALUE, ReverseEntry<KEYTYPE>> reverse = keysByValue;
+		if(reverse == null) {
+			return;
+		}
+		ReverseEntry<KEYTYPE> entry = reverse.get(value);
+		if(entry == null) {
+			return;
+		}
+		if(!entry.removeKey(key)) {
+			reverse.remove(value);
+		}
+	}
+	
+	/** The keys a value is registered under. getKeyOf reads key without a lock, so it's volatile and always one of
+	 *  the keys; the others are only kept so a removed key can be swapped for another one without searching the
+	 *  registry. */
+	static class ReverseEntry<KEYTYPE> {
+		volatile KEYTYPE key;
+		/** The keys besides key, null while there are none */
+		private List<KEYTYPE> others = null;
+		
+		ReverseEntry(KEYTYPE key) {
+			this.key = key;
+		}
+		
+		void addKey(KEYTYPE other) {
+			if(others == null) {
+				others = new ArrayList<KEYTYPE>(2);
+			}
+			others.add(other);
+		}
+		
+		/** Removes the key, returns false when it was the last one */
+		boolean removeKey(KEYTYPE removed) {
+			KEYTYPE current = key;
+			if(current == removed || (current != null && current.equals(removed))) {
+				if(others == null || others.isEmpty()) {
+					return false;
+				}
+				key = others.remove(others.size() - 1);
+			} else if(others != null) {
+				others.remove(removed);
+			}
+			return true;
+		}
 	}
 }
@@ -0,0 +1,189 @@
+package celestibytes.lib.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts the lookups, misses, rejected registrations and reloads of one registry. The counters are LongAdders, so
+ *  threads looking up at the same time don't fight over one counter. Metrics are off by default, turn them on per
+ *  registry with enableMetrics or for every registry made afterwards with the system property
+ *  "celestibytes.registryMetrics=true". Listeners are told about every miss, rejection and reload, for finding out which
+ *  keys are missing. */
+public final class RegistryMetrics {
+	
+	/** Every registry with metrics, weakly so they can still be collected. Guarded by itself. */
+	private static final List<WeakReference<RegistryMetrics>> ALL = new ArrayList<WeakReference<RegistryMetrics>>();
+	/** ALL is cleared of collected registries when it grows to this size, so it stays about twice the live ones */
+	private static int pruneAt = 16;
+	
+	private final String registryName;
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final LongAdder reloads = new LongAdder();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	
+	RegistryMetrics(String registryName) {
+		this.registryName = registryName;
+		synchronized(ALL) {
+			if(ALL.size() >= pruneAt) {
+				prune();
+				pruneAt = Math.max(16, ALL.size() * 2);
+			}
+			ALL.add(new WeakReference<RegistryMetrics>(this));
+		}
+	}
+	
+	/** Checks the system property that turns metrics on for all registries */
+	static boolean enabledByDefault() {
+		return Boolean.getBoolean("celestibytes.registryMetrics");
+	}
+	
+	public String getRegistryName() {
+		return registryName;
+	}
+	
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+	
+	/** Returns the current counts, taken one after another so they can be off by the lookups running meanwhile */
+	public Snapshot snapshot() {
+		return new Snapshot(registryName, lookups.sum(), misses.sum(), rejections.sum(), reloads.sum());
+	}
+	
+	/** Returns the current counts and starts counting from zero again */
+	public Snapshot snapshotAndReset() {
+		return new Snapshot(registryName, lookups.sumThenReset(), misses.sumThenReset(), rejections.sumThenReset(), reloads.sumThenReset());
+	}
+	
+	/** Returns snapshots of every registry that has metrics and is still around */
+	public static List<Snapshot> snapshotAll() {
+		List<RegistryMetrics> live = new ArrayList<RegistryMetrics>();
+		synchronized(ALL) {
+			prune();
+			for(WeakReference<RegistryMetrics> ref : ALL) {
+				RegistryMetrics metrics = ref.get();
+				if(metrics != null) {
+					live.add(metrics);
+				}
+			}
+		}
+		List<Snapshot> ret = new ArrayList<Snapshot>(live.size());
+		for(RegistryMetrics metrics : live) {
+			ret.add(metrics.snapshot());
+		}
+		return ret;
+	}
+	
+	/** Drops the references to collected registries, the caller holds the ALL lock */
+	private static void prune() {
+		Iterator<WeakReference<RegistryMetrics>> it = ALL.iterator();
+		while(it.hasNext()) {
+			if(it.next().get() == null) {
+				it.remove();
+			}
+		}
+	}
+	
+	void lookup() {
+		lookups.increment();
+	}
+	
+	void miss(Object key) {
+		misses.increment();
+		if(!listeners.isEmpty()) {
+			for(Listener listener : listeners) {
+				listener.onMiss(registryName, key);
+			}
+		}
+	}
+	
+	void rejected(Object key) {
+		rejections.increment();
+		if(!listeners.isEmpty()) {
+			for(Listener listener : listeners) {
+				listener.onRejected(registryName, key);
+			}
+		}
+	}
+	
+	void reloaded() {
+		reloads.increment();
+		if(!listeners.isEmpty()) {
+			for(Listener listener : listeners) {
+				listener.onReload(registryName);
+			}
+		}
+	}
+	
+	/** Gets told about the rarer events of a registry. Called on the thread that caused them, so keep it quick. */
+	public interface Listener {
+		/** A lookup of a key that isn't registered, answered with the nullValue */
+		public void onMiss(String registryName, Object key);
+		
+		/** A register of a key that was already registered, which got ignored */
+		public void onRejected(String registryName, Object key);
+		
+		/** The registry was cleared or got a new generation */
+		public void onReload(String registryName);
+	}
+	
+	/** The counts of a registry at one point */
+	public static final class Snapshot {
+		
+		private final String registryName;
+		private final long lookups;
+		private final long misses;
+		private final long rejections;
+		private final long reloads;
+		
+		Snapshot(String registryName, long lookups, long misses, long rejections, long reloads) {
+			this.registryName = registryName;
+			this.lookups = lookups;
+			this.misses = misses;
+			this.rejections = rejections;
+			this.reloads = reloads;
+		}
+		
+		public String getRegistryName() {
+			return registryName;
+		}
+		
+		public long getLookups() {
+			return lookups;
+		}
+		
+		/** Lookups that were answered with the nullValue */
+		public long getMisses() {
+			return misses;
+		}
+		
+		/** Registers that were ignored because the key was already there */
+		public long getRejections() {
+			return rejections;
+		}
+		
+		public long getReloads() {
+			return reloads;
+		}
+		
+		/** Returns the part of the lookups that found a value, 1 if there were no lookups */
+		public double getHitRatio() {
+			return lookups == 0L ? 1.0D : (double) (lookups - misses) / lookups;
+		}
+		
+		@Override
+		public String toString() {
+			return registryName + ": " + lookups + " lookups, " + misses + " misses, " + rejections + " rejections, " + reloads + " reloads";
+		}
+	}
+	
+}
@@ -0,0 +1,181 @@
+package celestibytes.lib.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/** Saves the contents of a Registry to a binary file and loads them back, so a registry whose contents are the same on
+ *  every launch doesn't have to be rebuilt by the registration code. Keys and values are written with the given codecs,
+ *  a value codec can also write just a reference (a name, an index) and resolve it again on decode. IdRegistry ids are
+ *  saved as well and come back the same on load.
+ *  The fingerprint should change whenever the registration code could give a different result (mod list, config,
+ *  versions), a snapshot with another fingerprint is treated as missing. */
+public final class RegistrySnapshot {
+	
+	private static final int MAGIC = 0x52454753; // "REGS"
+	private static final int FORMAT_VERSION = 1;
+	/** magic, format version, fingerprint, body length */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+	
+	private RegistrySnapshot() {}
+	
+	/** Writes every entry of the registry to the file. The snapshot is written next to the file and then moved over it,
+	 *  so a crash while saving doesn't leave a half written snapshot behind. */
+	public static <KEYTYPE, VALUE> void save(Registry<KEYTYPE, VALUE> registry, File file, ICodec<KEYTYPE> keyCodec, ICodec<VALUE> valueCodec, long fingerprint) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.setLength(0L);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(raf.getFD()), 64 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(fingerprint);
+			out.writeLong(0L); // body length, filled in below
+			
+			byte[] name = registry.getRegistryName().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(name.length);
+			out.write(name);
+			
+			if(registry instanceof IdRegistry) {
+				IdRegistry<KEYTYPE, VALUE> idRegistry = (IdRegistry<KEYTYPE, VALUE>) registry;
+				Map<KEYTYPE, Integer> ids = idRegistry.getIdMap();
+				out.writeInt(ids.size());
+				for(Entry<KEYTYPE, Integer> entry : ids.entrySet()) {
+					writeEntry(out, entry.getValue(), entry.getKey(), idRegistry.getById(entry.getValue()), keyCodec, valueCodec);
+				}
+			} else {
+				Map<KEYTYPE, VALUE> entries = new LinkedHashMap<KEYTYPE, VALUE>();
+				Iterator<Entry<KEYTYPE, VALUE>> it = registry.getMapIterator();
+				while(it.hasNext()) {
+					Entry<KEYTYPE, VALUE> entry = it.next();
+					entries.put(entry.getKey(), entry.getValue());
+				}
+				out.writeInt(entries.size());
+				for(Entry<KEYTYPE, VALUE> entry : entries.entrySet()) {
+					writeEntry(out, -1, entry.getKey(), entry.getValue(), keyCodec, valueCodec);
+				}
+			}
+			out.flush();
+			
+			long length = raf.length();
+			raf.seek(16L);
+			raf.writeLong(length - HEADER_SIZE);
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+		
+		if(!temp.renameTo(file)) {
+			file.delete();
+			if(!temp.renameTo(file)) {
+				throw new IOException("Could not move registry snapshot " + temp + " to " + file);
+			}
+		}
+	}
+	
+	/** Maps the snapshot and registers its entries with register_force. Returns false without touching the registry if
+	 *  the file doesn't exist or was saved with another fingerprint or format, the registry then has to be filled the
+	 *  normal way (and saved again). Throws an IOException if the file is damaged. */
+	public static <KEYTYPE, VALUE> boolean load(Registry<KEYTYPE, VALUE> registry, File file, ICodec<KEYTYPE> keyCodec, ICodec<VALUE> valueCodec, long fingerprint) throws IOException {
+		if(!file.isFile()) {
+			return false;
+		}
+		ByteBuffer data;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			if(length < HEADER_SIZE) {
+				return false;
+			}
+			if(length > Integer.MAX_VALUE) {
+				throw new IOException("Registry snapshot " + file + " is too large");
+			}
+			// the mapping stays valid after the channel is closed
+			data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, length);
+		} finally {
+			raf.close();
+		}
+		
+		if(data.getInt() != MAGIC || data.getInt() != FORMAT_VERSION || data.getLong() != fingerprint) {
+			return false;
+		}
+		if(data.getLong() != data.remaining()) {
+			throw new IOException("Registry snapshot " + file + " is truncated");
+		}
+		
+		try {
+			slice(data, data.getInt()); // the name is only there for people reading the file
+			int count = data.getInt();
+			if(count < 0 || count > data.remaining() / 12) {
+				throw new IOException("Registry snapshot " + file + " is damaged");
+			}
+			boolean ids = registry instanceof IdRegistry;
+			Map<KEYTYPE, Integer> savedIds = ids ? new LinkedHashMap<KEYTYPE, Integer>() : null;
+			Object[] keys = new Object[count];
+			Object[] values = new Object[count];
+			for(int i = 0; i < count; i++) {
+				int id = data.getInt();
+				KEYTYPE key = keyCodec.decode(slice(data, data.getInt()));
+				int valueLength = data.getInt();
+				VALUE value = valueLength < 0 ? null : valueCodec.decode(slice(data, valueLength));
+				keys[i] = key;
+				values[i] = value;
+				if(ids) {
+					savedIds.put(key, id);
+				}
+			}
+			if(ids) {
+				((IdRegistry<KEYTYPE, VALUE>) registry).remapIds(savedIds);
+			}
+			for(int i = 0; i < count; i++) {
+				@SuppressWarnings("unchecked")
+				KEYTYPE key = (KEYTYPE) keys[i];
+				@SuppressWarnings("unchecked")
+				VALUE value = (VALUE) values[i];
+				registry.register_force(key, value);
+			}
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Registry snapshot " + file + " is damaged", e);
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Registry snapshot " + file + " is damaged", e);
+		}
+		return true;
+	}
+	
+	private static <KEYTYPE, VALUE> void writeEntry(DataOutputStream out, int id, KEYTYPE key, VALUE value, ICodec<KEYTYPE> keyCodec, ICodec<VALUE> valueCodec) throws IOException {
+		out.writeInt(id);
+		byte[] keyData = keyCodec.encode(key);
+		out.writeInt(keyData.length);
+		out.write(keyData);
+		if(value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] valueData = valueCodec.encode(value);
+			out.writeInt(valueData.length);
+			out.write(valueData);
+		}
+	}
+	
+	/** Returns the next length bytes as their own buffer and skips over them */
+	private static ByteBuffer slice(ByteBuffer data, int length) {
+		if(length < 0 || length > data.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer ret = data.slice();
+		ret.limit(length);
+		data.position(data.position() + length);
+		return ret;
+	}
+	
+}
@@ -0,0 +1,226 @@
+package celestibytes.lib.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/** A Registry that can be reloaded while other threads read from it. The contents are kept as generations, each one a
+ *  frozen Registry that never changes after it's published. A reload fills a new registry off to the side
+ *  (beginReload) and publishes it in one step (commitReload), so readers see either the old or the new contents and
+ *  never an empty or half filled registry. A reader that needs the same contents over several lookups, for example
+ *  for a whole tick, pins the current generation and reads from that.
+ *  The single key methods copy the whole current generation, so bigger changes should go through a reload. */
+public class ReloadableRegistry<KEYTYPE, VALUE> {
+	
+	private final String registryName;
+	private final Object writeLock = new Object();
+	private volatile Generation<KEYTYPE, VALUE> current;
+	private VALUE nullValue = null;
+	private volatile RegistryMetrics metrics = null;
+	
+	/** Constructs a new, empty ReloadableRegistry with a name
+	 *  @param registryName the name of the registry, if null the registry will be called "unnamed_registry"
+	 */
+	public ReloadableRegistry(String registryName) {
+		Registry<KEYTYPE, VALUE> empty = new Registry<KEYTYPE, VALUE>(registryName, new HashMap<KEYTYPE, VALUE>(), false);
+		empty.freeze();
+		this.registryName = empty.getRegistryName();
+		this.current = new Generation<KEYTYPE, VALUE>(0L, empty);
+		if(RegistryMetrics.enabledByDefault()) {
+			this.metrics = new RegistryMetrics(this.registryName);
+		}
+	}
+	
+	/** Returns the current generation, which keeps its contents however many reloads happen while it's used */
+	public Generation<KEYTYPE, VALUE> pin() {
+		return current;
+	}
+	
+	/** Returns the number of the current generation, it goes up by one with every change */
+	public long getGeneration() {
+		return current.number;
+	}
+	
+	/** Gets the value of the key from the current generation */
+	public VALUE getValue(KEYTYPE key) {
+		RegistryMetrics metrics = this.metrics;
+		if(metrics == null) {
+			return current.registry.getValue(key);
+		}
+		metrics.lookup();
+		Registry<KEYTYPE, VALUE> registry = current.registry;
+		VALUE value = registry.getValue(key);
+		if(value == registry.nullValue && !registry.containsKey(key)) {
+			metrics.miss(key);
+		}
+		return value;
+	}
+	
+	public boolean containsKey(KEYTYPE key) {
+		return current.registry.containsKey(key);
+	}
+	
+	/** Returns an empty registry to fill with the new contents, hand it to commitReload when it's done.
+	 *  The readers keep seeing the current generation until then. */
+	public Registry<KEYTYPE, VALUE> beginReload() {
+		Registry<KEYTYPE, VALUE> staged = newStaging();
+		synchronized(writeLock) {
+			staged.setNullValue(nullValue);
+		}
+		return staged;
+	}
+	
+	/** Freezes the staged registry and publishes it as the next generation. Returns the new generation. */
+	public Generation<KEYTYPE, VALUE> commitReload(Registry<KEYTYPE, VALUE> staged) {
+		synchronized(writeLock) {
+			staged.setNullValue(nullValue);
+			Generation<KEYTYPE, VALUE> next = publish(staged);
+			if(metrics != null) {
+				metrics.reloaded();
+			}
+			return next;
+		}
+	}
+	
+	/** Registers the value with the key if the key hasn't been registered already. Publishes a new generation. */
+	public void register(KEYTYPE key, VALUE value) {
+		synchronized(writeLock) {
+			if(current.registry.containsKey(key)) {
+				System.err.println("Registry \"" + registryName + "\" already contains key \"" + key + "\", ignoring.");
+				if(metrics != null) {
+					metrics.rejected(key);
+				}
+				return;
+			}
+			Registry<KEYTYPE, VALUE> next = copyCurrent();
+			next.register(key, value);
+			publish(next);
+		}
+	}
+	
+	/** reRegisters the value with the key only if the key has already been registered. Publishes a new generation. */
+	public void reRegister(KEYTYPE key, VALUE value) {
+		synchronized(writeLock) {
+			if(current.registry.containsKey(key)) {
+				Registry<KEYTYPE, VALUE> next = copyCurrent();
+				next.reRegister(key, value);
+				publish(next);
+			}
+		}
+	}
+	
+	/** Registers the value with the key without caring about if it has already been registered. Publishes a new generation. */
+	public void register_force(KEYTYPE key, VALUE value) {
+		synchronized(writeLock) {
+			Registry<KEYTYPE, VALUE> next = copyCurrent();
+			next.register_force(key, value);
+			publish(next);
+		}
+	}
+	
+	public void removeByKey(KEYTYPE key) {
+		synchronized(writeLock) {
+			if(current.registry.containsKey(key)) {
+				Registry<KEYTYPE, VALUE> next = copyCurrent();
+				next.removeByKey(key);
+				publish(next);
+			}
+		}
+	}
+	
+	/** Publishes an empty generation */
+	public void clear() {
+		synchronized(writeLock) {
+			Registry<KEYTYPE, VALUE> next = newStaging();
+			next.setNullValue(nullValue);
+			publish(next);
+			if(metrics != null) {
+				metrics.reloaded();
+			}
+		}
+	}
+	
+	/** Sets the nullValue which will be returned when trying to get an unregistered value, from the next generation on */
+	public void setNullValue(VALUE nullValue) {
+		synchronized(writeLock) {
+			this.nullValue = nullValue;
+			publish(copyCurrent());
+		}
+	}
+	
+	public String getRegistryName() {
+		return registryName;
+	}
+	
+	/** Starts counting lookups, misses, rejected registers and reloads, and returns the counters */
+	public RegistryMetrics enableMetrics() {
+		synchronized(writeLock) {
+			if(metrics == null) {
+				metrics = new RegistryMetrics(registryName);
+			}
+			return metrics;
+		}
+	}
+	
+	/** Returns the counters, null if metrics aren't enabled */
+	public RegistryMetrics getMetrics() {
+		return metrics;
+	}
+	
+	private Registry<KEYTYPE, VALUE> copyCurrent() {
+		Registry<KEYTYPE, VALUE> next = newStaging();
+		next.setNullValue(nullValue);
+		Iterator<Entry<KEYTYPE, VALUE>> it = current.registry.getMapIterator();
+		while(it.hasNext()) {
+			Entry<KEYTYPE, VALUE> entry = it.next();
+			next.register_force(entry.getKey(), entry.getValue());
+		}
+		return next;
+	}
+	
+	/** A registry for the next generation, rejected registers on it count toward this registry's metrics */
+	private Registry<KEYTYPE, VALUE> newStaging() {
+		Registry<KEYTYPE, VALUE> staged = new Registry<KEYTYPE, VALUE>(registryName, new HashMap<KEYTYPE, VALUE>(), false);
+		staged.metrics = metrics;
+		return staged;
+	}
+	
+	private Generation<KEYTYPE, VALUE> publish(Registry<KEYTYPE, VALUE> registry) {
+		registry.freeze();
+		// lookups are counted by getValue here, not by the generation
+		registry.metrics = null;
+		Generation<KEYTYPE, VALUE> next = new Generation<KEYTYPE, VALUE>(current.number + 1, registry);
+		current = next;
+		return next;
+	}
+	
+	/** The contents of the registry at one point, read-only */
+	public static class Generation<KEYTYPE, VALUE> {
+		
+		private final long number;
+		private final Registry<KEYTYPE, VALUE> registry;
+		
+		private Generation(long number, Registry<KEYTYPE, VALUE> registry) {
+			this.number = number;
+			this.registry = registry;
+		}
+		
+		public long getNumber() {
+			return number;
+		}
+		
+		public VALUE getValue(KEYTYPE key) {
+			return registry.getValue(key);
+		}
+		
+		public boolean containsKey(KEYTYPE key) {
+			return registry.containsKey(key);
+		}
+		
+		/** Returns the frozen registry of this generation, anything that would change it throws an IllegalStateException */
+		public Registry<KEYTYPE, VALUE> getRegistry() {
+			return registry;
+		}
+	}
+	
+}
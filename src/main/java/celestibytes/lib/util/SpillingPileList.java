@@ -0,0 +1,237 @@
+package celestibytes.lib.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** A PileList that keeps at most memoryLimit items on the heap and moves the rest into a memory-mapped overflow file.
+ *  The list is split into three runs: items paged back in from the file, the items in the file, and the newest items.
+ *  When too many items are in memory the oldest of the newest run is written to the end of the file, and popping
+ *  from the start pages items back in a batch at a time. Items are written with the given codec.
+ *  The file is created on the first spill, it can grow up to 2GB. Not thread-safe.
+ *  It only has the queue part of PileList's API (adding, and getting or popping at either end) and doesn't extend it:
+ *  the spilled items have no PileListItem nodes and can't be walked without decoding them, so there are no
+ *  iterators, streams or limit. */
+public class SpillingPileList<VTYPE> implements Closeable {
+
+	private static final int INITIAL_FILE_SIZE = 1 << 20;
+	private static final int MAX_FILE_SIZE = Integer.MAX_VALUE - 8;
+	/** Bytes around each record, the length is written before and after it so the file can be read from both ends */
+	private static final int RECORD_OVERHEAD = 8;
+
+	private PileList<VTYPE> front = new PileList<VTYPE>();
+	private PileList<VTYPE> hot = new PileList<VTYPE>();
+
+	private final int memoryLimit;
+	private final int pageInCount;
+	private final ICodec<VTYPE> codec;
+	private final File file;
+	private final boolean deleteOnClose;
+
+	private FileChannel channel;
+	private MappedByteBuffer map;
+	/** The spilled records are in map[diskStart, diskEnd) */
+	private int diskStart = 0;
+	private int diskEnd = 0;
+	private int diskCount = 0;
+
+	/** Constructs a SpillingPileList that overflows into a temporary file, which is deleted on close */
+	public SpillingPileList(int memoryLimit, ICodec<VTYPE> codec) throws IOException {
+		this(memoryLimit, codec, File.createTempFile("pilelist", ".spill"), true);
+	}
+
+	/** Constructs a SpillingPileList that overflows into the given file, any old contents are overwritten */
+	public SpillingPileList(int memoryLimit, ICodec<VTYPE> codec, File file, boolean deleteOnClose) {
+		if(memoryLimit < 1) {
+			throw new IllegalArgumentException("memoryLimit must be at least 1, got " + memoryLimit);
+		}
+		this.memoryLimit = memoryLimit;
+		this.pageInCount = Math.max(1, memoryLimit / 4);
+		this.codec = codec;
+		this.file = file;
+		this.deleteOnClose = deleteOnClose;
+	}
+
+	public int getCount() {
+		return front.getCount() + diskCount + hot.getCount();
+	}
+
+	public boolean isEmpty() {
+		return getCount() == 0;
+	}
+
+	/** Returns the amount of items currently in the overflow file */
+	public int getSpilledCount() {
+		return diskCount;
+	}
+
+	public void addItem(VTYPE item) {
+		hot.addItem(item);
+		if(front.getCount() + hot.getCount() > memoryLimit) {
+			// only taken off the list once it is safely in the file, a failed spill leaves it in memory
+			spill(hot.getFirst());
+			hot.popFirst();
+		}
+	}
+
+	/** Removes the first item on the list and then returns it */
+	public VTYPE popFirst() {
+		if(front.isEmpty() && diskCount > 0) {
+			pageIn();
+		}
+		return front.isEmpty() ? hot.popFirst() : front.popFirst();
+	}
+
+	/** Removes the last item on the list and then returns it */
+	public VTYPE popLast() {
+		if(!hot.isEmpty()) {
+			return hot.popLast();
+		}
+		if(diskCount > 0) {
+			VTYPE ret = readLast();
+			diskEnd -= RECORD_OVERHEAD + map.getInt(diskEnd - 4);
+			diskCount--;
+			resetIfEmpty();
+			return ret;
+		}
+		return front.popLast();
+	}
+
+	public VTYPE getFirst() {
+		if(front.isEmpty() && diskCount > 0) {
+			pageIn();
+		}
+		return front.isEmpty() ? hot.getFirst() : front.getFirst();
+	}
+
+	public VTYPE getLast() {
+		if(!hot.isEmpty()) {
+			return hot.getLast();
+		}
+		return diskCount > 0 ? readLast() : front.getLast();
+	}
+
+	/** Closes the overflow file and drops every item */
+	@Override
+	public void close() throws IOException {
+		front = new PileList<VTYPE>();
+		hot = new PileList<VTYPE>();
+		diskStart = 0;
+		diskEnd = 0;
+		diskCount = 0;
+		map = null;
+		if(channel != null) {
+			channel.close();
+			channel = null;
+		}
+		if(deleteOnClose) {
+			file.delete();
+		}
+	}
+
+	private void spill(VTYPE item) {
+		byte[] data = codec.encode(item);
+		ensureSpace(data.length + RECORD_OVERHEAD);
+		map.putInt(diskEnd, data.length);
+		ByteBuffer view = map.duplicate();
+		view.position(diskEnd + 4);
+		view.put(data);
+		map.putInt(diskEnd + 4 + data.length, data.length);
+		diskEnd += data.length + RECORD_OVERHEAD;
+		diskCount++;
+	}
+
+	/** Moves a batch of the oldest spilled items back to the heap */
+	private void pageIn() {
+		int n = Math.min(diskCount, Math.max(1, Math.min(pageInCount, memoryLimit - hot.getCount())));
+		for(int i = 0; i < n; i++) {
+			int length = map.getInt(diskStart);
+			front.addItem(decode(diskStart + 4, length));
+			diskStart += length + RECORD_OVERHEAD;
+		}
+		diskCount -= n;
+		resetIfEmpty();
+	}
+
+	private VTYPE readLast() {
+		int length = map.getInt(diskEnd - 4);
+		return decode(diskEnd - 4 - length, length);
+	}
+
+	private VTYPE decode(int offset, int length) {
+		ByteBuffer view = map.duplicate();
+		view.limit(offset + length);
+		view.position(offset);
+		return codec.decode(view.slice());
+	}
+
+	/** Once nothing is spilled anymore the mapping is dropped, the next spill maps the file again */
+	private void resetIfEmpty() {
+		if(diskCount == 0) {
+			diskStart = 0;
+			diskEnd = 0;
+			map = null;
+		}
+	}
+
+	private void ensureSpace(int bytes) {
+		if(map != null && (long) diskEnd + bytes <= map.capacity()) {
+			return;
+		}
+		// only compact once the popped space is at least as big as the live records, so copying stays amortized
+		if(map != null && diskStart > 0 && diskStart >= diskEnd - diskStart) {
+			compact();
+			if((long) diskEnd + bytes <= map.capacity()) {
+				return;
+			}
+		}
+
+		long needed = (long) diskEnd + bytes;
+		if(needed > MAX_FILE_SIZE) {
+			throw new IllegalStateException("PileList overflow file " + file + " is full");
+		}
+		long size = map == null ? INITIAL_FILE_SIZE : map.capacity();
+		while(size < needed) {
+			size <<= 1;
+		}
+		size = Math.min(size, MAX_FILE_SIZE);
+
+		try {
+			if(channel == null) {
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				raf.setLength(0L);
+				channel = raf.getChannel();
+			}
+			// the old mapping stays in place until the new one is made, so a failed map leaves the spilled items readable
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+		} catch(IOException e) {
+			throw new UncheckedIOException("Could not map PileList overflow file " + file, e);
+		}
+	}
+
+	/** Moves the spilled records to the start of the file. The copy goes low to high through a buffer, so the overlap is fine. */
+	private void compact() {
+		byte[] buf = new byte[64 * 1024];
+		int from = diskStart;
+		int to = 0;
+		ByteBuffer src = map.duplicate();
+		ByteBuffer dst = map.duplicate();
+		while(from < diskEnd) {
+			int n = Math.min(buf.length, diskEnd - from);
+			src.position(from);
+			src.get(buf, 0, n);
+			dst.position(to);
+			dst.put(buf, 0, n);
+			from += n;
+			to += n;
+		}
+		diskEnd -= diskStart;
+		diskStart = 0;
+	}
+
+}
@@ -0,0 +1,304 @@
+package celestibytes.lib.util;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/** A thread-safe PileList for many producers. Every producer appends to its own shard, picked from the thread id
+ *  and moved to another shard when it keeps running into a lock that's taken (the same idea as LongAdder's probe).
+ *  When ordered is set every item is stamped with the time it was added, taken while its shard is locked, and drainTo
+ *  merges the shards in stamp order. The stamps never go down within a shard or within a thread, so the items of one
+ *  producer always come out in the order it added them, and items of different producers come out in the order
+ *  they were added, as far as System.nanoTime can tell them apart. There is no shared counter.
+ *  Without ordered the shards are drained one after another, the items only keep their order within a shard.
+ *  Items added while a drain is running may go to the next drain. */
+public class StripedPileList<VTYPE> {
+
+	private final Shard<VTYPE>[] shards;
+	private final boolean ordered;
+
+	/** Only one drain runs at a time, producers never wait for it */
+	private final ReentrantLock drainLock = new ReentrantLock();
+	/** Items taken out of the shards by a drain that haven't been handed out yet */
+	private volatile int carriedCount = 0;
+
+	/** Per thread shard index and last stamp */
+	private final ThreadLocal<Probe> probe = new ThreadLocal<Probe>() {
+		@Override
+		protected Probe initialValue() {
+			return new Probe(mix((int) Thread.currentThread().getId()));
+		}
+	};
+
+	/** Constructs a StripedPileList with a shard for each processor */
+	public StripedPileList(boolean ordered) {
+		this(Runtime.getRuntime().availableProcessors(), ordered);
+	}
+
+	/** Constructs a StripedPileList with shards rounded up to a power of two */
+	@SuppressWarnings("unchecked")
+	public StripedPileList(int shards, boolean ordered) {
+		int n = 1;
+		while(n < shards) {
+			n <<= 1;
+		}
+		this.shards = (Shard<VTYPE>[]) new Shard<?>[n];
+		for(int i = 0; i < n; i++) {
+			this.shards[i] = new Shard<VTYPE>();
+		}
+		this.ordered = ordered;
+	}
+
+	public void addItem(VTYPE item) {
+		Probe p = probe.get();
+		Shard<VTYPE> shard = shards[p.index & (shards.length - 1)];
+		if(!shard.lock.tryLock()) {
+			// someone else is on this shard, move this thread somewhere else for the next time
+			p.index = mix(p.index + 0x9E3779B9);
+			shard.lock.lock();
+		}
+		try {
+			shard.items.addItem(item);
+			if(ordered) {
+				long stamp = Math.max(System.nanoTime(), Math.max(p.lastStamp + 1L, shard.lastStamp));
+				p.lastStamp = stamp;
+				shard.lastStamp = stamp;
+				shard.stamps.addLast(stamp);
+			}
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	/** Returns the total amount of items, the shards are counted one by one so this can be off while producers run */
+	public int getCount() {
+		int count = carriedCount;
+		for(Shard<VTYPE> shard : shards) {
+			shard.lock.lock();
+			try {
+				count += shard.items.getCount();
+			} finally {
+				shard.lock.unlock();
+			}
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return getCount() == 0;
+	}
+
+	/** Removes up to maxItems items and hands them to the consumer, returns the amount removed.
+	 *  The items are taken out of each shard under its lock and handed out after it's released, so producers can keep
+	 *  adding (also from the consumer) while the consumer runs. Drains from several threads run one after another.
+	 *  If the consumer throws, the items it didn't get stay queued and come first in the next drain. */
+	public int drainTo(Consumer<? super VTYPE> consumer, int maxItems) {
+		if(maxItems <= 0) {
+			return 0;
+		}
+		drainLock.lock();
+		try {
+			return ordered ? drainOrdered(consumer, maxItems) : drainRelaxed(consumer, maxItems);
+		} finally {
+			drainLock.unlock();
+		}
+	}
+
+	/** Moves the items of each shard into its carry and hands them out from there, so if the consumer throws the
+	 *  items it didn't get stay carried and come first in the next drain, like in drainOrdered. */
+	private int drainRelaxed(Consumer<? super VTYPE> consumer, int maxItems) {
+		int drained = 0;
+		for(int i = 0; i < shards.length && drained < maxItems; i++) {
+			Shard<VTYPE> shard = shards[i];
+			int need = maxItems - drained - shard.carried.getCount();
+			if(need > 0) {
+				int before = shard.carried.getCount();
+				shard.lock.lock();
+				try {
+					if(before == 0 && shard.items.getCount() <= need) {
+						PileList<VTYPE> items = shard.carried;
+						shard.carried = shard.items;
+						shard.items = items;
+					} else if(!shard.items.isEmpty()) {
+						shard.carried.addAll(shard.items.popFirst(need));
+					}
+				} finally {
+					shard.lock.unlock();
+				}
+				carriedCount += shard.carried.getCount() - before;
+			}
+			while(drained < maxItems && !shard.carried.isEmpty()) {
+				VTYPE item = shard.carried.popFirst();
+				drained++;
+				carriedCount--;
+				consumer.accept(item);
+			}
+		}
+		return drained;
+	}
+
+	/** Moves up to maxItems of the oldest items of every shard into its carry, then merges the carries by stamp with
+	 *  a heap of shards. Every item of the maxItems oldest ones is among the maxItems oldest of its own shard, so the
+	 *  merge can't miss one. What isn't handed out stays carried for the next drain, it's older than anything still
+	 *  in the shard. */
+	private int drainOrdered(Consumer<? super VTYPE> consumer, int maxItems) {
+		int carried = 0;
+		for(Shard<VTYPE> shard : shards) {
+			int need = maxItems - shard.carried.getCount();
+			if(need > 0) {
+				shard.lock.lock();
+				try {
+					if(shard.carried.isEmpty() && shard.items.getCount() <= need) {
+						PileList<VTYPE> items = shard.carried;
+						LongRing stamps = shard.carriedStamps;
+						shard.carried = shard.items;
+						shard.carriedStamps = shard.stamps;
+						shard.items = items;
+						shard.stamps = stamps;
+					} else {
+						for(int n = Math.min(need, shard.items.getCount()); n > 0; n--) {
+							shard.carried.addItem(shard.items.popFirst());
+							shard.carriedStamps.addLast(shard.stamps.pollFirst());
+						}
+					}
+				} finally {
+					shard.lock.unlock();
+				}
+			}
+			carried += shard.carried.getCount();
+		}
+		carriedCount = carried;
+
+		int[] heap = new int[shards.length];
+		int size = 0;
+		for(int i = 0; i < shards.length; i++) {
+			if(shards[i].carriedStamps.size > 0) {
+				heap[size] = i;
+				siftUp(heap, size++);
+			}
+		}
+
+		int drained = 0;
+		try {
+			while(drained < maxItems && size > 0) {
+				Shard<VTYPE> next = shards[heap[0]];
+				next.carriedStamps.pollFirst();
+				VTYPE item = next.carried.popFirst();
+				if(next.carriedStamps.size == 0) {
+					heap[0] = heap[--size];
+				}
+				siftDown(heap, 0, size);
+				drained++;
+				carriedCount = carried - drained;
+				consumer.accept(item);
+			}
+		} finally {
+			carriedCount = carried - drained;
+		}
+		return drained;
+	}
+
+	private void siftUp(int[] heap, int i) {
+		int shard = heap[i];
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(!before(shard, heap[parent])) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = shard;
+	}
+
+	private void siftDown(int[] heap, int i, int size) {
+		if(size == 0) {
+			return;
+		}
+		int shard = heap[i];
+		while(true) {
+			int child = 2 * i + 1;
+			if(child >= size) {
+				break;
+			}
+			if(child + 1 < size && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if(!before(heap[child], shard)) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = shard;
+	}
+
+	/** If the first carried item of shard a comes before the one of shard b */
+	private boolean before(int a, int b) {
+		long sa = shards[a].carriedStamps.first();
+		long sb = shards[b].carriedStamps.first();
+		return sa < sb || (sa == sb && a < b);
+	}
+
+	private static int mix(int x) {
+		x ^= x >>> 16;
+		x *= 0x85EBCA6B;
+		x ^= x >>> 13;
+		x *= 0xC2B2AE35;
+		x ^= x >>> 16;
+		return x;
+	}
+
+	private static class Probe {
+		private int index;
+		/** The stamp of the last item this thread added, the next one is higher */
+		private long lastStamp = Long.MIN_VALUE;
+
+		private Probe(int index) {
+			this.index = index;
+		}
+	}
+
+	private static class Shard<VTYPE> {
+		private final ReentrantLock lock = new ReentrantLock();
+		private PileList<VTYPE> items = new PileList<VTYPE>();
+		/** Stamps of the items in the same order, only used when ordered */
+		private LongRing stamps = new LongRing();
+		private long lastStamp = Long.MIN_VALUE;
+
+		/** Items a drain took out but didn't hand out yet, only touched while holding drainLock */
+		private PileList<VTYPE> carried = new PileList<VTYPE>();
+		private LongRing carriedStamps = new LongRing();
+	}
+
+	/** A growable ring of longs, so stamps don't have to be boxed */
+	private static class LongRing {
+		private long[] values = new long[16];
+		private int start;
+		private int size;
+
+		private long first() {
+			return values[start];
+		}
+
+		private void addLast(long value) {
+			if(size == values.length) {
+				long[] grown = new long[values.length << 1];
+				for(int i = 0; i < size; i++) {
+					grown[i] = values[(start + i) & (values.length - 1)];
+				}
+				values = grown;
+				start = 0;
+			}
+			values[(start + size) & (values.length - 1)] = value;
+			size++;
+		}
+
+		private long pollFirst() {
+			long ret = values[start];
+			start = (start + 1) & (values.length - 1);
+			size--;
+			return ret;
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package celestibytes.lib.util;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+
+/** A PileList that keeps running statistics of a value taken from each item, for the items currently in the window.
+ *  The window is either a count limit (the oldest item gets pushed out, like limitMethod = true, deleteLast = false),
+ *  an age limit, or both. Sum, mean, min and max are answered in O(1) and percentiles from a fixed log scale histogram,
+ *  accurate to about 6%. Items only leave from the start, removeLast and PileListItem.remove() must not be used. */
+public class WindowPileList<VTYPE> extends PileList<VTYPE> {
+
+	/** Histogram sub buckets per power of two */
+	private static final int SUB_BITS = 4;
+	private static final int MIN_EXPONENT = -32;
+	private static final int MAX_EXPONENT = 32;
+	/** Bucket 0 holds zero, negative and NaN values */
+	private static final int BUCKETS = 1 + ((MAX_EXPONENT - MIN_EXPONENT) << SUB_BITS);
+
+	private final ToDoubleFunction<? super VTYPE> valueOf;
+	private final long maxAgeNanos;
+
+	/** Values and add times of the items, the ring is in the same order as the list */
+	private double[] values = new double[16];
+	private long[] times = new long[16];
+	private int ringStart = 0;
+	private int ringSize = 0;
+	/** Sequence number of the first item, each added item gets the next one */
+	private long firstSeq = 0L;
+
+	/** Sequence numbers of the items that can still become the min or the max, as rings */
+	private long[] minSeqs = new long[16];
+	private int minStart = 0;
+	private int minSize = 0;
+	private long[] maxSeqs = new long[16];
+	private int maxStart = 0;
+	private int maxSize = 0;
+
+	private double sum = 0.0D;
+	private int evictionsSinceSum = 0;
+	private final int[] histogram = new int[BUCKETS];
+
+	/** Constructs a window holding the last limit items */
+	public WindowPileList(int limit, ToDoubleFunction<? super VTYPE> valueOf) {
+		this(limit, -1L, TimeUnit.NANOSECONDS, valueOf);
+	}
+
+	/** Constructs a window holding the items added within maxAge, and at most limit of them if limit isn't -1.
+	 *  A maxAge of -1 disables the age limit. */
+	public WindowPileList(int limit, long maxAge, TimeUnit unit, ToDoubleFunction<? super VTYPE> valueOf) {
+		super(limit, true, false);
+		this.valueOf = valueOf;
+		this.maxAgeNanos = maxAge < 0L ? -1L : unit.toNanos(maxAge);
+	}
+
+	@Override
+	public void addItem(VTYPE item) {
+		long now = System.nanoTime();
+		expire(now);
+		super.addItem(item);
+		push(valueOf.applyAsDouble(item), now);
+	}
+
+	@Override
+	public void addAll(Collection<? extends VTYPE> items) {
+		for(VTYPE item : items) {
+			addItem(item);
+		}
+	}
+
+	@Override
+	public void addAll(VTYPE[] items) {
+		for(VTYPE item : items) {
+			addItem(item);
+		}
+	}
+
+	@Override
+	public void removeFirst() {
+		if(!isEmpty()) {
+			evict();
+		}
+		super.removeFirst();
+	}
+
+	/** Not supported, windows only drop items from the start */
+	@Override
+	public void removeLast() {
+		throw new UnsupportedOperationException("WindowPileList only removes items from the start");
+	}
+
+	@Override
+	public int drainTo(Consumer<? super VTYPE> consumer, int maxItems) {
+		int n = Math.min(maxItems, getCount());
+		for(int i = 0; i < n; i++) {
+			evict();
+		}
+		return super.drainTo(consumer, n);
+	}
+
+	@Override
+	public int drainTo(VTYPE[] array) {
+		int n = Math.min(array.length, getCount());
+		for(int i = 0; i < n; i++) {
+			evict();
+		}
+		return super.drainTo(array);
+	}
+
+	/** Drops the items that have grown older than the age limit, the queries below call this themselves */
+	public void expire() {
+		expire(System.nanoTime());
+	}
+
+	public double getSum() {
+		expire();
+		return sum;
+	}
+
+	/** Returns the mean of the values, NaN if the window is empty */
+	public double getMean() {
+		expire();
+		return ringSize == 0 ? Double.NaN : sum / ringSize;
+	}
+
+	/** Returns the smallest value, NaN if the window is empty */
+	public double getMin() {
+		expire();
+		return minSize == 0 ? Double.NaN : valueAt(minSeqs[minStart]);
+	}
+
+	/** Returns the largest value, NaN if the window is empty */
+	public double getMax() {
+		expire();
+		return maxSize == 0 ? Double.NaN : valueAt(maxSeqs[maxStart]);
+	}
+
+	/** Returns roughly the value below which the given percent (0 - 100) of the values fall, NaN if the window is empty.
+	 *  Values at or below zero all count as zero. */
+	public double getPercentile(double percent) {
+		expire();
+		if(ringSize == 0) {
+			return Double.NaN;
+		}
+		int rank = (int) Math.ceil(Math.max(0.0D, Math.min(100.0D, percent)) / 100.0D * ringSize);
+		if(rank < 1) {
+			rank = 1;
+		}
+		int seen = 0;
+		int bucket = 0;
+		while(bucket < BUCKETS - 1) {
+			seen += histogram[bucket];
+			if(seen >= rank) {
+				break;
+			}
+			bucket++;
+		}
+		double min = valueAt(minSeqs[minStart]);
+		double max = valueAt(maxSeqs[maxStart]);
+		return Math.max(min, Math.min(max, bucketMiddle(bucket)));
+	}
+
+	private void expire(long now) {
+		if(maxAgeNanos < 0L) {
+			return;
+		}
+		while(ringSize > 0 && now - times[ringStart] > maxAgeNanos) {
+			removeFirst();
+		}
+	}
+
+	private double valueAt(long seq) {
+		return values[(ringStart + (int) (seq - firstSeq)) & (values.length - 1)];
+	}
+
+	private void push(double value, long time) {
+		if(ringSize == values.length) {
+			grow();
+		}
+		int slot = (ringStart + ringSize) & (values.length - 1);
+		values[slot] = value;
+		times[slot] = time;
+		long seq = firstSeq + ringSize;
+		ringSize++;
+
+		int mask = minSeqs.length - 1;
+		while(minSize > 0 && valueAt(minSeqs[(minStart + minSize - 1) & mask]) >= value) {
+			minSize--;
+		}
+		minSeqs[(minStart + minSize) & mask] = seq;
+		minSize++;
+		while(maxSize > 0 && valueAt(maxSeqs[(maxStart + maxSize - 1) & mask]) <= value) {
+			maxSize--;
+		}
+		maxSeqs[(maxStart + maxSize) & mask] = seq;
+		maxSize++;
+
+		sum += value;
+		histogram[bucketOf(value)]++;
+	}
+
+	/** Forgets the value of the first item */
+	private void evict() {
+		double value = values[ringStart];
+		int mask = minSeqs.length - 1;
+		if(minSize > 0 && minSeqs[minStart] == firstSeq) {
+			minStart = (minStart + 1) & mask;
+			minSize--;
+		}
+		if(maxSize > 0 && maxSeqs[maxStart] == firstSeq) {
+			maxStart = (maxStart + 1) & mask;
+			maxSize--;
+		}
+		histogram[bucketOf(value)]--;
+		ringStart = (ringStart + 1) & (values.length - 1);
+		ringSize--;
+		firstSeq++;
+
+		// subtracting keeps adding rounding error, so the sum gets redone once per window length
+		sum -= value;
+		if(++evictionsSinceSum >= values.length) {
+			evictionsSinceSum = 0;
+			sum = 0.0D;
+			for(int i = 0; i < ringSize; i++) {
+				sum += values[(ringStart + i) & (values.length - 1)];
+			}
+		}
+	}
+
+	private void grow() {
+		int capacity = values.length << 1;
+		double[] newValues = new double[capacity];
+		long[] newTimes = new long[capacity];
+		for(int i = 0; i < ringSize; i++) {
+			int slot = (ringStart + i) & (values.length - 1);
+			newValues[i] = values[slot];
+			newTimes[i] = times[slot];
+		}
+		long[] newMins = new long[capacity];
+		for(int i = 0; i < minSize; i++) {
+			newMins[i] = minSeqs[(minStart + i) & (minSeqs.length - 1)];
+		}
+		long[] newMaxs = new long[capacity];
+		for(int i = 0; i < maxSize; i++) {
+			newMaxs[i] = maxSeqs[(maxStart + i) & (maxSeqs.length - 1)];
+		}
+		values = newValues;
+		times = newTimes;
+		ringStart = 0;
+		minSeqs = newMins;
+		minStart = 0;
+		maxSeqs = newMaxs;
+		maxStart = 0;
+	}
+
+	private static int bucketOf(double value) {
+		if(!(value > 0.0D)) {
+			return 0;
+		}
+		long bits = Double.doubleToRawLongBits(value);
+		int exponent = (int) (bits >>> 52) - 1023;
+		if(exponent < MIN_EXPONENT) {
+			return 1;
+		}
+		if(exponent >= MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (bits >>> (52 - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return 1 + ((exponent - MIN_EXPONENT) << SUB_BITS) + sub;
+	}
+
+	private static double bucketMiddle(int bucket) {
+		if(bucket == 0) {
+			return 0.0D;
+		}
+		int exponent = ((bucket - 1) >> SUB_BITS) + MIN_EXPONENT;
+		int sub = (bucket - 1) & ((1 << SUB_BITS) - 1);
+		return Math.scalb(1.0D + (sub + 0.5D) / (1 << SUB_BITS), exponent);
+	}
+
+}
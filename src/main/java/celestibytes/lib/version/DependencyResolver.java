@@ -0,0 +1,723 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Picks a consistent set of package {@link Version}s, preferring the newest
+ * ones.
+ * <p/>
+ * Every package has a list of available {@link Version}s, and every
+ * {@link Version} has its own {@link VersionConstraint}s on other packages.
+ * {@link #resolve(Map)} starts from the root constraints and picks one
+ * {@link Version} per needed package, the package with the fewest fitting
+ * {@link Version}s first and the newest fitting {@link Version} first.
+ * <p/>
+ * When a package runs out of {@link Version}s the search does not just step
+ * back one choice: it works out which earlier choices caused the conflict and
+ * jumps straight back to the latest of them (conflict-directed backjumping).
+ * Each such conflict is also remembered as a combination of choices that can
+ * not work together, so the search never walks into it again. If there is no
+ * solution the {@link Resolution} explains why.
+ *
+ * @author PizzAna
+ * @see VersionConstraint
+ */
+public final class DependencyResolver
+{
+    /**
+     * The {@link Version}s of each package.
+     */
+    private final Map<String, List<Candidate>> packages = new HashMap<String, List<Candidate>>();
+    
+    /**
+     * The same {@link Version}s without the dependencies, for searching.
+     */
+    private final Map<String, List<Version>> versions = new HashMap<String, List<Version>>();
+    
+    /**
+     *
+     * Constructs a new, empty {@link DependencyResolver}.
+     *
+     */
+    public DependencyResolver()
+    {
+        
+    }
+    
+    /**
+     * Adds an available {@link Version} of a package, replacing an equal
+     * {@link Version} added before. {@link Version}s that only sort the same
+     * are both kept.
+     *
+     * @param name
+     *            the name of the package.
+     * @param version
+     *            the {@link Version}.
+     * @param dependencies
+     *            the constraints this {@link Version} puts on other packages,
+     *            by package name.
+     */
+    public void addVersion(String name, Version version, Map<String, VersionConstraint> dependencies)
+    {
+        List<Candidate> list = packages.get(name);
+        List<Version> versionList = versions.get(name);
+        if (list == null)
+        {
+            list = new ArrayList<Candidate>();
+            versionList = new ArrayList<Version>();
+            packages.put(name, list);
+            versions.put(name, versionList);
+        }
+        
+        Candidate candidate = new Candidate(name, version, new LinkedHashMap<String, VersionConstraint>(
+                dependencies));
+        int lo = 0;
+        int hi = list.size();
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (Versions.keyComparator.compare(list.get(mid).version, version) < 0)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+        
+        // versions the order can't tell apart, like 1.0-rc1 and 1.0-rc2, are kept next to each other
+        for (int i = lo; i < list.size() && Versions.keyComparator.compare(list.get(i).version, version) == 0; i++)
+        {
+            if (Versions.equals(list.get(i).version, version))
+            {
+                list.set(i, candidate);
+                versionList.set(i, version);
+                return;
+            }
+        }
+        
+        list.add(lo, candidate);
+        versionList.add(lo, version);
+    }
+    
+    /**
+     * Gives the available {@link Version}s of a package.
+     *
+     * @param name
+     *            the name of the package.
+     * @return the {@link Version}s, oldest first.
+     */
+    public List<Version> getVersions(String name)
+    {
+        List<Version> list = versions.get(name);
+        return list == null ? Collections.<Version> emptyList() : Collections.unmodifiableList(list);
+    }
+    
+    /**
+     * Picks a {@link Version} for every package needed by the roots and their
+     * dependencies.
+     *
+     * @param roots
+     *            the constraints to start from, by package name.
+     * @return the {@link Resolution}.
+     */
+    public Resolution resolve(Map<String, VersionConstraint> roots)
+    {
+        return new Search(roots).run();
+    }
+    
+    /**
+     * The outcome of {@link DependencyResolver#resolve(Map)}.
+     *
+     * @author PizzAna
+     */
+    public static final class Resolution
+    {
+        private final Map<String, Version> selected;
+        private final List<String> explanation;
+        
+        private Resolution(Map<String, Version> selected, List<String> explanation)
+        {
+            this.selected = selected;
+            this.explanation = explanation;
+        }
+        
+        /**
+         * Tells if a consistent set of {@link Version}s was found.
+         *
+         * @return {@code true} if the resolution succeeded.
+         */
+        public boolean isSuccess()
+        {
+            return selected != null;
+        }
+        
+        /**
+         * Gives the picked {@link Version}s.
+         *
+         * @return the {@link Version} of every needed package, or {@code null}
+         *         if the resolution failed.
+         */
+        public Map<String, Version> getSelected()
+        {
+            return selected;
+        }
+        
+        /**
+         * Gives the reasons the resolution failed, one per line.
+         *
+         * @return the explanation, empty if the resolution succeeded.
+         */
+        public List<String> getExplanation()
+        {
+            return explanation;
+        }
+        
+        @Override
+        public String toString()
+        {
+            if (isSuccess())
+            {
+                return selected.toString();
+            }
+            
+            StringBuilder builder = new StringBuilder();
+            for (String line : explanation)
+            {
+                builder.append(line).append('\n');
+            }
+            
+            return builder.toString();
+        }
+    }
+    
+    /**
+     * A {@link Version} of a package with its dependencies.
+     */
+    private static final class Candidate
+    {
+        private final String name;
+        private final Version version;
+        private final Map<String, VersionConstraint> dependencies;
+        
+        private Candidate(String name, Version version, Map<String, VersionConstraint> dependencies)
+        {
+            this.name = name;
+            this.version = version;
+            this.dependencies = dependencies;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return name + " " + version;
+        }
+    }
+    
+    /**
+     * Everything currently asked of one package.
+     */
+    private static final class Requirement
+    {
+        /**
+         * The packages that asked, {@code null} for the roots.
+         */
+        private final List<Candidate> sources = new ArrayList<Candidate>();
+        private final List<VersionConstraint> constraints = new ArrayList<VersionConstraint>();
+        private VersionConstraint combined = VersionConstraint.ANY;
+        /**
+         * The amount of {@link Version}s fitting the combined constraint,
+         * {@code -1} when it has to be counted again.
+         */
+        private int count = -1;
+        
+        private void add(Candidate source, VersionConstraint constraint)
+        {
+            sources.add(source);
+            constraints.add(constraint);
+            combined = combined.intersect(constraint);
+            count = -1;
+        }
+        
+        private void remove(Candidate source)
+        {
+            int i = sources.lastIndexOf(source);
+            sources.remove(i);
+            constraints.remove(i);
+            combined = VersionConstraint.ANY;
+            for (VersionConstraint constraint : constraints)
+            {
+                combined = combined.intersect(constraint);
+            }
+            count = -1;
+        }
+        
+        private String describe(String name)
+        {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < sources.size(); i++)
+            {
+                builder.append(i == 0 ? "" : ", ").append(name).append(' ').append(constraints.get(i));
+                builder.append(" (").append(sources.get(i) == null ? "root" : sources.get(i).toString()).append(')');
+            }
+            
+            return builder.toString();
+        }
+    }
+    
+    /**
+     * One choice of the search.
+     */
+    private static final class Level
+    {
+        private final String name;
+        private final int depth;
+        /**
+         * The fitting {@link Version}s, newest first.
+         */
+        private final List<Candidate> options;
+        private int next = 0;
+        private Candidate chosen = null;
+        /**
+         * The packages whose choices ruled out options of this one.
+         */
+        private final Set<String> conflicts = new HashSet<String>();
+        private final List<String> reasons = new ArrayList<String>();
+        
+        private Level(String name, int depth, List<Candidate> options)
+        {
+            this.name = name;
+            this.depth = depth;
+            this.options = options;
+        }
+    }
+    
+    /**
+     * A combination of choices that can not all be made together.
+     */
+    private static final class Nogood
+    {
+        private final Map<String, Candidate> choices;
+        
+        private Nogood(Map<String, Candidate> choices)
+        {
+            this.choices = choices;
+        }
+    }
+    
+    /**
+     * The state of one {@link DependencyResolver#resolve(Map)} call.
+     */
+    private final class Search
+    {
+        private final Map<String, Requirement> requirements = new LinkedHashMap<String, Requirement>();
+        private final Map<String, Level> assigned = new HashMap<String, Level>();
+        private final List<Level> levels = new ArrayList<Level>();
+        private final Map<Candidate, List<Nogood>> nogoods = new IdentityHashMap<Candidate, List<Nogood>>();
+        
+        private Search(Map<String, VersionConstraint> roots)
+        {
+            for (Entry<String, VersionConstraint> root : roots.entrySet())
+            {
+                requirement(root.getKey()).add(null, root.getValue());
+            }
+        }
+        
+        private Resolution run()
+        {
+            Level level = null;
+            while (true)
+            {
+                if (level == null)
+                {
+                    String name = pickNext();
+                    if (name == null)
+                    {
+                        Map<String, Version> selected = new LinkedHashMap<String, Version>();
+                        for (Level l : levels)
+                        {
+                            selected.put(l.name, l.chosen.version);
+                        }
+                        
+                        return new Resolution(Collections.unmodifiableMap(selected), Collections
+                                .<String> emptyList());
+                    }
+                    
+                    level = new Level(name, levels.size(), options(name, requirements.get(name).combined));
+                    levels.add(level);
+                }
+                
+                Candidate candidate = tryNext(level);
+                if (candidate != null)
+                {
+                    assign(level, candidate);
+                    level = null;
+                    continue;
+                }
+                
+                // out of options, the packages asking for this one share the blame
+                Requirement requirement = requirements.get(level.name);
+                for (Candidate source : requirement.sources)
+                {
+                    if (source != null)
+                    {
+                        level.conflicts.add(source.name);
+                    }
+                }
+                
+                if (level.options.isEmpty())
+                {
+                    level.reasons.add("no version of " + level.name + " fits " + requirement.describe(level.name));
+                }
+                
+                if (level.conflicts.isEmpty())
+                {
+                    List<String> explanation = new ArrayList<String>();
+                    explanation.add("Could not find a version of " + level.name + ":");
+                    for (String reason : level.reasons)
+                    {
+                        explanation.add("  " + reason);
+                    }
+                    
+                    return new Resolution(null, Collections.unmodifiableList(explanation));
+                }
+                
+                Level back = null;
+                Map<String, Candidate> choices = new HashMap<String, Candidate>();
+                for (String name : level.conflicts)
+                {
+                    Level l = assigned.get(name);
+                    choices.put(name, l.chosen);
+                    if (back == null || l.depth > back.depth)
+                    {
+                        back = l;
+                    }
+                }
+                
+                learn(new Nogood(choices));
+                
+                while (levels.size() - 1 > back.depth)
+                {
+                    Level l = levels.remove(levels.size() - 1);
+                    if (l.chosen != null)
+                    {
+                        unassign(l);
+                    }
+                }
+                
+                back.reasons.add(back.chosen + " left no version of " + level.name + " to pick" + firstReason(level));
+                unassign(back);
+                for (String name : level.conflicts)
+                {
+                    if (!name.equals(back.name))
+                    {
+                        back.conflicts.add(name);
+                    }
+                }
+                
+                level = back;
+            }
+        }
+        
+        /**
+         * Gives the needed package with the fewest fitting {@link Version}s,
+         * {@code null} when every needed package has one.
+         */
+        private String pickNext()
+        {
+            String best = null;
+            int bestCount = Integer.MAX_VALUE;
+            for (Entry<String, Requirement> entry : requirements.entrySet())
+            {
+                if (entry.getValue().sources.isEmpty() || assigned.containsKey(entry.getKey()))
+                {
+                    continue;
+                }
+                
+                Requirement requirement = entry.getValue();
+                if (requirement.count < 0)
+                {
+                    requirement.count = count(entry.getKey(), requirement.combined);
+                }
+                
+                int count = requirement.count;
+                if (count < bestCount)
+                {
+                    best = entry.getKey();
+                    bestCount = count;
+                    if (count == 0)
+                    {
+                        break;
+                    }
+                }
+            }
+            
+            return best;
+        }
+        
+        /**
+         * Gives the next option of the level that does not clash with the
+         * choices made so far, recording why the others were skipped.
+         */
+        private Candidate tryNext(Level level)
+        {
+            options:
+            while (level.next < level.options.size())
+            {
+                Candidate candidate = level.options.get(level.next++);
+                
+                List<Nogood> known = nogoods.get(candidate);
+                if (known != null)
+                {
+                    for (Nogood nogood : known)
+                    {
+                        if (holds(nogood, candidate))
+                        {
+                            for (String name : nogood.choices.keySet())
+                            {
+                                if (!name.equals(level.name))
+                                {
+                                    level.conflicts.add(name);
+                                }
+                            }
+                            
+                            level.reasons.add(candidate + " can not be picked together with " + others(nogood,
+                                    candidate) + ", found earlier");
+                            continue options;
+                        }
+                    }
+                }
+                
+                for (Entry<String, VersionConstraint> dependency : candidate.dependencies.entrySet())
+                {
+                    String name = dependency.getKey();
+                    VersionConstraint constraint = dependency.getValue();
+                    if (name.equals(level.name))
+                    {
+                        continue;
+                    }
+                    
+                    Level other = assigned.get(name);
+                    if (other != null)
+                    {
+                        if (!constraint.matches(other.chosen.version))
+                        {
+                            level.conflicts.add(name);
+                            level.reasons.add(candidate + " needs " + name + " " + constraint + " but " + other.chosen
+                                    + " is picked");
+                            continue options;
+                        }
+                        
+                        continue;
+                    }
+                    
+                    Requirement requirement = requirements.get(name);
+                    VersionConstraint combined = requirement == null ? constraint : requirement.combined
+                            .intersect(constraint);
+                    if (count(name, combined) == 0)
+                    {
+                        String also = "";
+                        if (requirement != null && !requirement.sources.isEmpty())
+                        {
+                            for (Candidate source : requirement.sources)
+                            {
+                                if (source != null)
+                                {
+                                    level.conflicts.add(source.name);
+                                }
+                            }
+                            
+                            also = " together with " + requirement.describe(name);
+                        }
+                        
+                        level.reasons.add(candidate + " needs " + name + " " + constraint + " but no version of "
+                                + name + " fits" + also);
+                        continue options;
+                    }
+                }
+                
+                return candidate;
+            }
+            
+            return null;
+        }
+        
+        /**
+         * Tells if all the other choices of the {@link Nogood} are currently
+         * made.
+         */
+        private boolean holds(Nogood nogood, Candidate candidate)
+        {
+            for (Entry<String, Candidate> choice : nogood.choices.entrySet())
+            {
+                if (choice.getValue() == candidate)
+                {
+                    continue;
+                }
+                
+                Level level = assigned.get(choice.getKey());
+                if (level == null || level.chosen != choice.getValue())
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        private void learn(Nogood nogood)
+        {
+            for (Candidate choice : nogood.choices.values())
+            {
+                List<Nogood> list = nogoods.get(choice);
+                if (list == null)
+                {
+                    list = new ArrayList<Nogood>(2);
+                    nogoods.put(choice, list);
+                }
+                
+                list.add(nogood);
+            }
+        }
+        
+        private void assign(Level level, Candidate candidate)
+        {
+            level.chosen = candidate;
+            assigned.put(level.name, level);
+            for (Entry<String, VersionConstraint> dependency : candidate.dependencies.entrySet())
+            {
+                if (!dependency.getKey().equals(level.name))
+                {
+                    requirement(dependency.getKey()).add(candidate, dependency.getValue());
+                }
+            }
+        }
+        
+        private void unassign(Level level)
+        {
+            Candidate candidate = level.chosen;
+            for (String name : candidate.dependencies.keySet())
+            {
+                if (!name.equals(level.name))
+                {
+                    requirements.get(name).remove(candidate);
+                }
+            }
+            
+            assigned.remove(level.name);
+            level.chosen = null;
+        }
+        
+        private Requirement requirement(String name)
+        {
+            Requirement requirement = requirements.get(name);
+            if (requirement == null)
+            {
+                requirement = new Requirement();
+                requirements.put(name, requirement);
+            }
+            
+            return requirement;
+        }
+        
+        /**
+         * Gives the {@link Version}s of the package that fit the constraint,
+         * newest first.
+         */
+        private List<Candidate> options(String name, VersionConstraint constraint)
+        {
+            List<Candidate> ret = new ArrayList<Candidate>();
+            List<Candidate> list = packages.get(name);
+            if (list != null)
+            {
+                int[] ranges = constraint.ranges(versions.get(name));
+                for (int r = ranges.length - 2; r >= 0; r -= 2)
+                {
+                    for (int i = ranges[r + 1] - 1; i >= ranges[r]; i--)
+                    {
+                        ret.add(list.get(i));
+                    }
+                }
+            }
+            
+            return ret;
+        }
+        
+        private int count(String name, VersionConstraint constraint)
+        {
+            List<Version> list = versions.get(name);
+            if (list == null)
+            {
+                return 0;
+            }
+            
+            int[] ranges = constraint.ranges(list);
+            int count = 0;
+            for (int r = 0; r < ranges.length; r += 2)
+            {
+                count += ranges[r + 1] - ranges[r];
+            }
+            
+            return count;
+        }
+        
+        /**
+         * Gives the first reason of the level as a short suffix, so the
+         * reasons do not nest without end.
+         */
+        private String firstReason(Level level)
+        {
+            if (level.reasons.isEmpty())
+            {
+                return "";
+            }
+            
+            String reason = level.reasons.get(0);
+            if (reason.length() > 200)
+            {
+                reason = reason.substring(0, 200) + "...";
+            }
+            
+            int more = level.reasons.size() - 1;
+            return " (" + reason + (more > 0 ? ", and " + more + " more" : "") + ")";
+        }
+        
+        private String others(Nogood nogood, Candidate candidate)
+        {
+            StringBuilder builder = new StringBuilder();
+            for (Candidate choice : nogood.choices.values())
+            {
+                if (choice != candidate)
+                {
+                    builder.append(builder.length() == 0 ? "" : ", ").append(choice);
+                }
+            }
+            
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,612 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Checks many update urls at once, like {@link Versions#parseFromUrl(URL)}
+ * does for a single one.
+ * <p/>
+ * The urls are fetched concurrently, with at most a set amount of requests
+ * open at a time, and every request has a connect and read timeout. The
+ * {@link Version}s are cached in a file: a url checked less than the time to
+ * live ago is not fetched again, and an older one is fetched with its
+ * {@code ETag} and {@code Last-Modified} so an unchanged url costs a
+ * {@code 304} response without a body. When a url can not be read the last
+ * cached {@link Version} is given along with the error.
+ * <p/>
+ * The requests run on the given {@link ExecutorService}, which can be one
+ * that starts a thread per task. Without one a pool of daemon threads is
+ * used, which {@link #close()} shuts down.
+ *
+ * @author PizzAna
+ * @see Versions#parseFromUrl(URL)
+ */
+public final class UpdateChecker implements Closeable
+{
+    /**
+     * The default most requests open at once.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 16;
+    
+    /**
+     * The default connect and read timeout, in milliseconds.
+     */
+    public static final int DEFAULT_TIMEOUT = 5000;
+    
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Semaphore permits;
+    private final int timeout;
+    private final File cacheFile;
+    private final long timeToLive;
+    
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+    private boolean cacheLoaded;
+    private volatile boolean cacheDirty;
+    
+    /**
+     *
+     * Constructs a new {@link UpdateChecker} with its own threads and the
+     * default limits.
+     *
+     * @param cacheFile
+     *            the file to cache the {@link Version}s in, or {@code null}
+     *            to only cache them in memory.
+     * @param timeToLive
+     *            how long a cached {@link Version} is used without asking the
+     *            server, in milliseconds.
+     */
+    public UpdateChecker(File cacheFile, long timeToLive)
+    {
+        this(null, DEFAULT_MAX_CONCURRENT, DEFAULT_TIMEOUT, cacheFile, timeToLive);
+    }
+    
+    /**
+     *
+     * Constructs a new {@link UpdateChecker}.
+     *
+     * @param executor
+     *            runs the requests, or {@code null} to use an own pool of
+     *            daemon threads.
+     * @param maxConcurrent
+     *            the most requests open at once.
+     * @param timeout
+     *            the connect and read timeout of a request, in milliseconds.
+     * @param cacheFile
+     *            the file to cache the {@link Version}s in, or {@code null}
+     *            to only cache them in memory.
+     * @param timeToLive
+     *            how long a cached {@link Version} is used without asking the
+     *            server, in milliseconds.
+     */
+    public UpdateChecker(ExecutorService executor, int maxConcurrent, int timeout, File cacheFile, long timeToLive)
+    {
+        if (maxConcurrent < 1)
+        {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1, got " + maxConcurrent);
+        }
+        
+        if (timeout < 0 || timeToLive < 0L)
+        {
+            throw new IllegalArgumentException("Negative timeout or time to live");
+        }
+        
+        this.ownsExecutor = executor == null;
+        this.executor = executor != null ? executor : Executors.newFixedThreadPool(maxConcurrent, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "UpdateChecker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.permits = new Semaphore(maxConcurrent);
+        this.timeout = timeout;
+        this.cacheFile = cacheFile;
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * Checks a single url.
+     *
+     * @param url
+     *            the url.
+     * @return the {@link Result} of the check.
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting.
+     */
+    public Result check(URL url) throws InterruptedException
+    {
+        return check(Collections.singletonList(url)).get(0);
+    }
+    
+    /**
+     * Checks every url, at most the set amount at a time, and waits for all of
+     * them. The same url given twice is only fetched once. The cache file is
+     * written afterwards if anything changed.
+     *
+     * @param urls
+     *            the urls.
+     * @return the {@link Result} of every url, in the order of the urls.
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting, the checks that
+     *             are still running are cancelled.
+     */
+    public List<Result> check(List<URL> urls) throws InterruptedException
+    {
+        loadCache();
+        
+        // keyed by the url text, URL.hashCode would look up the host
+        Map<String, Future<Result>> futures = new LinkedHashMap<String, Future<Result>>();
+        try
+        {
+            for (final URL url : urls)
+            {
+                String key = url.toExternalForm();
+                if (futures.containsKey(key))
+                {
+                    continue;
+                }
+                
+                futures.put(key, executor.submit(new Callable<Result>()
+                {
+                    @Override
+                    public Result call() throws InterruptedException
+                    {
+                        permits.acquire();
+                        try
+                        {
+                            return fetch(url);
+                        }
+                        finally
+                        {
+                            permits.release();
+                        }
+                    }
+                }));
+            }
+            
+            List<Result> ret = new ArrayList<Result>(urls.size());
+            for (URL url : urls)
+            {
+                try
+                {
+                    ret.add(futures.get(url.toExternalForm()).get());
+                }
+                catch (ExecutionException e)
+                {
+                    ret.add(new Result(null, e.getCause(), Source.FAILED));
+                }
+            }
+            
+            return ret;
+        }
+        catch (InterruptedException e)
+        {
+            for (Future<Result> future : futures.values())
+            {
+                future.cancel(true);
+            }
+            
+            throw e;
+        }
+        finally
+        {
+            saveCache();
+        }
+    }
+    
+    /**
+     * Forgets every cached {@link Version}, the cache file is emptied on the
+     * next check.
+     */
+    public void clearCache()
+    {
+        loadCache();
+        cache.clear();
+        cacheDirty = true;
+    }
+    
+    /**
+     * Shuts down the own threads, if there are any. A given
+     * {@link ExecutorService} is left running.
+     */
+    @Override
+    public void close()
+    {
+        if (ownsExecutor)
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    private Result fetch(URL url)
+    {
+        String key = url.toExternalForm();
+        CacheEntry cached = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.fetched < timeToLive)
+        {
+            return new Result(Versions.parse(cached.version), null, Source.CACHE);
+        }
+        
+        try
+        {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setUseCaches(false);
+            if (cached != null)
+            {
+                if (cached.etag != null)
+                {
+                    connection.setRequestProperty("If-None-Match", cached.etag);
+                }
+                
+                if (cached.lastModified != 0L)
+                {
+                    connection.setIfModifiedSince(cached.lastModified);
+                }
+            }
+            
+            if (connection instanceof HttpURLConnection)
+            {
+                HttpURLConnection http = (HttpURLConnection) connection;
+                int code = http.getResponseCode();
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null)
+                {
+                    discard(http.getErrorStream());
+                    put(key, new CacheEntry(cached.version, cached.etag, cached.lastModified, now));
+                    return new Result(Versions.parse(cached.version), null, Source.NOT_MODIFIED);
+                }
+                
+                if (code / 100 != 2)
+                {
+                    discard(http.getErrorStream());
+                    throw new IOException("Server returned HTTP " + code + " for " + url);
+                }
+            }
+            
+            String line;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                    StandardCharsets.UTF_8));
+            try
+            {
+                line = reader.readLine();
+            }
+            finally
+            {
+                reader.close();
+            }
+            
+            if (line == null)
+            {
+                throw new IOException("Empty response from " + url);
+            }
+            
+            Version version = Versions.parse(line);
+            put(key, new CacheEntry(line.trim(), connection.getHeaderField("ETag"), connection.getLastModified(), now));
+            return new Result(version, null, Source.NETWORK);
+        }
+        catch (IOException e)
+        {
+            return failed(cached, e);
+        }
+        catch (VersionFormatException e)
+        {
+            return failed(cached, e);
+        }
+    }
+    
+    private static Result failed(CacheEntry cached, Exception e)
+    {
+        if (cached != null)
+        {
+            return new Result(Versions.parse(cached.version), e, Source.STALE);
+        }
+        
+        return new Result(null, e, Source.FAILED);
+    }
+    
+    private void put(String key, CacheEntry entry)
+    {
+        cache.put(key, entry);
+        cacheDirty = true;
+    }
+    
+    /**
+     * Reads the rest of an error body, so the connection can be kept alive.
+     */
+    private static void discard(InputStream in) throws IOException
+    {
+        if (in == null)
+        {
+            return;
+        }
+        
+        try
+        {
+            byte[] buf = new byte[512];
+            while (in.read(buf) != -1)
+            {
+                
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    private synchronized void loadCache()
+    {
+        if (cacheLoaded)
+        {
+            return;
+        }
+        
+        cacheLoaded = true;
+        if (cacheFile == null || !cacheFile.isFile())
+        {
+            return;
+        }
+        
+        Properties properties = new Properties();
+        try
+        {
+            InputStream in = new FileInputStream(cacheFile);
+            try
+            {
+                properties.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not read update cache " + cacheFile + ", ignoring: " + e);
+            return;
+        }
+        
+        for (String url : properties.stringPropertyNames())
+        {
+            CacheEntry entry = CacheEntry.fromString(properties.getProperty(url));
+            if (entry != null)
+            {
+                cache.put(url, entry);
+            }
+        }
+    }
+    
+    /**
+     * Writes the cache next to the file and then moves it over the file, so a
+     * crash while saving does not leave a half written cache behind.
+     */
+    private synchronized void saveCache()
+    {
+        if (cacheFile == null || !cacheDirty)
+        {
+            return;
+        }
+        
+        cacheDirty = false;
+        Properties properties = new Properties();
+        for (Entry<String, CacheEntry> entry : cache.entrySet())
+        {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        try
+        {
+            OutputStream out = new FileOutputStream(temp);
+            try
+            {
+                properties.store(out, "Update check cache");
+            }
+            finally
+            {
+                out.close();
+            }
+            
+            if (!temp.renameTo(cacheFile))
+            {
+                cacheFile.delete();
+                if (!temp.renameTo(cacheFile))
+                {
+                    throw new IOException("Could not move " + temp + " to " + cacheFile);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            cacheDirty = true;
+            System.err.println("Could not write update cache " + cacheFile + ": " + e);
+        }
+    }
+    
+    /**
+     * Where the {@link Version} of a {@link Result} came from.
+     */
+    public static enum Source
+    {
+        /**
+         * Fetched from the server.
+         */
+        NETWORK,
+        
+        /**
+         * The server said the cached {@link Version} is still current.
+         */
+        NOT_MODIFIED,
+        
+        /**
+         * The cached {@link Version} was new enough to not ask the server.
+         */
+        CACHE,
+        
+        /**
+         * The server could not be read, the {@link Version} is the last cached
+         * one.
+         */
+        STALE,
+        
+        /**
+         * The server could not be read and nothing was cached.
+         */
+        FAILED
+    }
+    
+    /**
+     * The outcome of checking one url.
+     */
+    public static final class Result
+    {
+        private final Version version;
+        private final Throwable error;
+        private final Source source;
+        
+        private Result(Version version, Throwable error, Source source)
+        {
+            this.version = version;
+            this.error = error;
+            this.source = source;
+        }
+        
+        /**
+         * Gives the {@link Version} of the url.
+         *
+         * @return the {@link Version}, or {@code null} if the check failed
+         *         and nothing was cached.
+         */
+        public Version getVersion()
+        {
+            return version;
+        }
+        
+        /**
+         * Gives the reason the url could not be read.
+         *
+         * @return the error, or {@code null} if the check went fine.
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+        
+        /**
+         * Gives where the {@link Version} came from.
+         *
+         * @return the {@link Source}.
+         */
+        public Source getSource()
+        {
+            return source;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return source + (version != null ? " " + version : "") + (error != null ? " (" + error + ")" : "");
+        }
+    }
+    
+    /**
+     * A cached {@link Version} with what is needed to ask the server if it
+     * changed.
+     */
+    private static final class CacheEntry
+    {
+        private final String version;
+        private final String etag;
+        private final long lastModified;
+        private final long fetched;
+        
+        private CacheEntry(String version, String etag, long lastModified, long fetched)
+        {
+            this.version = version;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetched = fetched;
+        }
+        
+        /**
+         * Reads an entry written by {@link #toString()}, {@code null} if it is
+         * damaged.
+         */
+        private static CacheEntry fromString(String s)
+        {
+            String[] parts = s.split(" ", 4);
+            if (parts.length < 3)
+            {
+                return null;
+            }
+            
+            try
+            {
+                Versions.parse(parts[2]);
+                return new CacheEntry(parts[2], parts.length == 4 ? parts[3] : null, Long.parseLong(parts[1]),
+                        Long.parseLong(parts[0]));
+            }
+            catch (IllegalArgumentException e)
+            {
+                return null;
+            }
+        }
+        
+        /**
+         * The fetch time, the last modified time, the {@link Version} and the
+         * {@code ETag} if there is one, separated by spaces.
+         */
+        @Override
+        public String toString()
+        {
+            return fetched + " " + lastModified + " " + version + (etag != null ? " " + etag : "");
+        }
+    }
+}
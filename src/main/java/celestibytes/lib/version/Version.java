@@ -36,6 +36,14 @@ public abstract class Version implements Comparable<Version>
      */
     public final int minor;
     
+    /**
+     * The sortable key of this {@link Version}, {@code 0} until it is first
+     * needed.
+     *
+     * @see Versions#key(Version)
+     */
+    volatile long packedKey;
+    
     /**
      *
      * Constructs a new {@link Version}.
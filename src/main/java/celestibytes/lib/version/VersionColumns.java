@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Many {@link Version}s stored as columns instead of objects, as read by
+ * {@link VersionReader}.
+ * <p/>
+ * Every row has the {@link Versions#key(Version) key} of its {@link Version},
+ * the id of its qualifier and its type, 13 bytes in all. Each different
+ * qualifier is stored once. {@link #get(int)} makes the {@link Version} of a
+ * row again. Rows whose key is not {@link Versions#isKeyExact(Version) exact}
+ * also keep their {@link Version}, since the key does not hold all of it.
+ *
+ * @author PizzAna
+ * @see VersionReader
+ */
+public final class VersionColumns
+{
+    private static final byte SNAPSHOT = 0;
+    private static final byte SEMANTIC = 1;
+    private static final byte BIG = 2;
+    
+    private long[] keys = new long[64];
+    private int[] qualifierIds = new int[64];
+    private byte[] types = new byte[64];
+    private int size = 0;
+    
+    private final List<String> qualifiers = new ArrayList<String>();
+    private final Map<String, Integer> qualifierIndex = new HashMap<String, Integer>();
+    
+    /**
+     * The {@link Version}s of the rows with inexact keys, by row.
+     */
+    private final Map<Integer, Version> inexact = new HashMap<Integer, Version>();
+    
+    /**
+     *
+     * Constructs a new, empty {@link VersionColumns}.
+     *
+     */
+    public VersionColumns()
+    {
+        
+    }
+    
+    /**
+     * Adds a row for the {@link Version}.
+     *
+     * @param v
+     *            the {@link Version}.
+     */
+    public void add(Version v)
+    {
+        byte type;
+        String qualifier = null;
+        if (v instanceof Snapshot)
+        {
+            type = SNAPSHOT;
+        }
+        else if (v instanceof BigVersion)
+        {
+            type = BIG;
+        }
+        else if (v instanceof SemanticVersion)
+        {
+            type = SEMANTIC;
+            qualifier = ((SemanticVersion) v).qualifier;
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown version type " + v.getClass().getName());
+        }
+        
+        if (size == keys.length)
+        {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            qualifierIds = Arrays.copyOf(qualifierIds, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        
+        keys[size] = VersionKeys.key(v);
+        qualifierIds[size] = qualifierId(qualifier);
+        types[size] = type;
+        if (!VersionKeys.isExact(v))
+        {
+            inexact.put(size, v);
+        }
+        
+        size++;
+    }
+    
+    /**
+     * Gives the amount of rows.
+     *
+     * @return the amount of rows.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Gives the {@link Versions#key(Version) key} of a row.
+     *
+     * @param row
+     *            the row.
+     * @return the key.
+     */
+    public long getKey(int row)
+    {
+        checkRow(row);
+        return keys[row];
+    }
+    
+    /**
+     * Tells if the key of a row holds all of its {@link Version}.
+     *
+     * @param row
+     *            the row.
+     * @return {@code true} if the key is exact.
+     * @see Versions#isKeyExact(Version)
+     */
+    public boolean isKeyExact(int row)
+    {
+        checkRow(row);
+        return !inexact.containsKey(row);
+    }
+    
+    /**
+     * Gives the id of the qualifier of a row.
+     *
+     * @param row
+     *            the row.
+     * @return the index of the qualifier in {@link #getQualifiers()}, or -1
+     *         if the row has none.
+     */
+    public int getQualifierId(int row)
+    {
+        checkRow(row);
+        return qualifierIds[row];
+    }
+    
+    /**
+     * Gives the qualifier of a row.
+     *
+     * @param row
+     *            the row.
+     * @return the qualifier, or {@code null} if the row has none.
+     */
+    public String getQualifier(int row)
+    {
+        int id = getQualifierId(row);
+        return id < 0 ? null : qualifiers.get(id);
+    }
+    
+    /**
+     * Gives every different qualifier, by id.
+     *
+     * @return the qualifiers.
+     */
+    public List<String> getQualifiers()
+    {
+        return Collections.unmodifiableList(qualifiers);
+    }
+    
+    /**
+     * Makes the {@link Version} of a row.
+     *
+     * @param row
+     *            the row.
+     * @return the {@link Version}, shared like the ones given by
+     *         {@link Versions#intern(Version)}.
+     */
+    public Version get(int row)
+    {
+        checkRow(row);
+        Version v = inexact.get(row);
+        if (v != null)
+        {
+            return v;
+        }
+        
+        long key = keys[row];
+        int major = VersionKeys.major(key);
+        int minor = VersionKeys.minor(key);
+        switch (types[row])
+        {
+            case SNAPSHOT:
+                v = new Snapshot(major, minor);
+                break;
+            case BIG:
+                v = new BigVersion(major, minor, VersionKeys.patch(key), VersionKeys.build(key));
+                break;
+            default:
+                v = new SemanticVersion(major, minor, VersionKeys.patch(key), getQualifier(row),
+                        VersionKeys.build(key));
+                break;
+        }
+        
+        return Versions.intern(v);
+    }
+    
+    /**
+     * Gives a copy of the key column, for sorting or searching without
+     * making {@link Version}s.
+     *
+     * @return the keys, one per row.
+     */
+    public long[] getKeys()
+    {
+        return Arrays.copyOf(keys, size);
+    }
+    
+    private int qualifierId(String qualifier)
+    {
+        if (qualifier == null)
+        {
+            return -1;
+        }
+        
+        Integer id = qualifierIndex.get(qualifier);
+        if (id == null)
+        {
+            id = qualifiers.size();
+            qualifiers.add(qualifier);
+            qualifierIndex.put(qualifier, id);
+        }
+        
+        return id;
+    }
+    
+    private void checkRow(int row)
+    {
+        if (row < 0 || row >= size)
+        {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+        }
+    }
+}
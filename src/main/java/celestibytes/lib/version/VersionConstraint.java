@@ -0,0 +1,876 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of {@link Version}s described by a constraint such as
+ * {@code [1.2,2.0)}, {@code ^1.4.2} or {@code >=1.0 <2.0 || 3.x}.
+ * <p/>
+ * A constraint is compiled into a sorted list of disjoint intervals, so
+ * checking a {@link Version} is a binary search over the intervals followed by
+ * one comparison with each end. {@link Version}s are ordered by
+ * {@link Versions#keyComparator}.
+ * <p/>
+ * The supported syntax:
+ * <ul>
+ * <li>Maven ranges: {@code [1.0,2.0)}, {@code (,1.5]}, {@code [1.2,)} and
+ * {@code [1.2.3]} for exactly one {@link Version}.</li>
+ * <li>Comparisons: {@code >=1.0}, {@code >1.0}, {@code <=1.0}, {@code <1.0} and
+ * {@code =1.0}. A bare {@link Version} means the same as {@code =}.</li>
+ * <li>Caret: {@code ^1.2.3} allows everything up to the next major version,
+ * {@code ^0.2.3} up to the next minor and {@code ^0.0.3} up to the next patch.
+ * </li>
+ * <li>Tilde and wildcards: {@code ~1.2.3}, {@code ~1.2} and {@code 1.2.x} allow
+ * everything up to the next minor version, {@code ~1} and {@code 1.x} up to the
+ * next major. {@code *} allows everything.</li>
+ * <li>Terms separated by whitespace must all match (intersection), and
+ * {@code ||} or a comma between terms joins them (union), so
+ * {@code [1.0,2.0),[3.0,)} is a union like in Maven.</li>
+ * </ul>
+ * Missing version numbers count as {@code 0}, so {@code 1.2} means
+ * {@code 1.2.0}, and {@code []} matches nothing. The upper bound of caret,
+ * tilde and wildcard ranges is the {@link Snapshot} of the next version,
+ * which comes before all of its releases.
+ *
+ * @author PizzAna
+ * @see Versions
+ * @see Version
+ */
+public final class VersionConstraint
+{
+    /**
+     * The constraint that matches every {@link Version}.
+     */
+    public static final VersionConstraint ANY = new VersionConstraint(new Version[] { null },
+            new boolean[] { false }, new Version[] { null }, new boolean[] { false });
+    
+    /**
+     * The constraint that matches no {@link Version}.
+     */
+    public static final VersionConstraint NONE = new VersionConstraint(new Version[0], new boolean[0],
+            new Version[0], new boolean[0]);
+    
+    /**
+     * The lower ends of the intervals in increasing order, {@code null} for
+     * no lower end.
+     */
+    private final Version[] lows;
+    
+    private final boolean[] lowInclusive;
+    
+    /**
+     * The upper ends of the intervals, {@code null} for no upper end.
+     */
+    private final Version[] highs;
+    
+    private final boolean[] highInclusive;
+    
+    /**
+     *
+     * Constructs a new {@link VersionConstraint} from normalized intervals.
+     *
+     */
+    private VersionConstraint(Version[] lows, boolean[] lowInclusive, Version[] highs, boolean[] highInclusive)
+    {
+        this.lows = lows;
+        this.lowInclusive = lowInclusive;
+        this.highs = highs;
+        this.highInclusive = highInclusive;
+    }
+    
+    /**
+     * Parses a {@link VersionConstraint}.
+     *
+     * @param s
+     *            the constraint.
+     * @return the parsed {@link VersionConstraint}.
+     * @throws VersionFormatException
+     *             if the constraint or a {@link Version} in it can not be
+     *             parsed.
+     */
+    public static VersionConstraint parse(String s)
+    {
+        return new Parser(s).parse();
+    }
+    
+    /**
+     * Creates a {@link VersionConstraint} matching a single interval.
+     *
+     * @param low
+     *            the lower end, {@code null} for none.
+     * @param lowInclusive
+     *            if the lower end itself matches.
+     * @param high
+     *            the upper end, {@code null} for none.
+     * @param highInclusive
+     *            if the upper end itself matches.
+     * @return the {@link VersionConstraint}.
+     */
+    public static VersionConstraint range(Version low, boolean lowInclusive, Version high, boolean highInclusive)
+    {
+        List<Interval> list = new ArrayList<Interval>(1);
+        list.add(new Interval(low, low != null && lowInclusive, high, high != null && highInclusive));
+        return normalize(list);
+    }
+    
+    /**
+     * Creates a {@link VersionConstraint} matching exactly one {@link Version}.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return the {@link VersionConstraint}.
+     */
+    public static VersionConstraint exactly(Version v)
+    {
+        return range(v, true, v, true);
+    }
+    
+    /**
+     * Tells if the {@link Version} satisfies this constraint.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return {@code true} if the {@link Version} matches, otherwise
+     *         {@code false}.
+     */
+    public boolean matches(Version v)
+    {
+        int i = intervalAtOrBefore(v);
+        return i >= 0 && belowHigh(v, i);
+    }
+    
+    /**
+     * Tells if no {@link Version} can satisfy this constraint.
+     *
+     * @return {@code true} if the constraint is empty.
+     */
+    public boolean isEmpty()
+    {
+        return lows.length == 0;
+    }
+    
+    /**
+     * Gives the {@link Version}s of a sorted list that satisfy this
+     * constraint, with a binary search for each interval.
+     *
+     * @param sorted
+     *            the {@link Version}s, sorted by
+     *            {@link Versions#keyComparator}.
+     * @return the matching {@link Version}s in the same order.
+     */
+    public List<Version> filter(List<? extends Version> sorted)
+    {
+        List<Version> ret = new ArrayList<Version>();
+        for (int i = 0; i < lows.length; i++)
+        {
+            int from = firstAtOrAbove(sorted, i);
+            int to = firstAbove(sorted, i);
+            for (int j = from; j < to; j++)
+            {
+                ret.add(sorted.get(j));
+            }
+        }
+        
+        return ret;
+    }
+    
+    /**
+     * Gives the newest {@link Version} of a sorted list that satisfies this
+     * constraint.
+     *
+     * @param sorted
+     *            the {@link Version}s, sorted by
+     *            {@link Versions#keyComparator}.
+     * @return the newest matching {@link Version}, or {@code null} if none
+     *         match.
+     */
+    public Version newest(List<? extends Version> sorted)
+    {
+        for (int i = lows.length - 1; i >= 0; i--)
+        {
+            int to = firstAbove(sorted, i);
+            if (to > 0 && to > firstAtOrAbove(sorted, i))
+            {
+                return sorted.get(to - 1);
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Gives the index ranges of the {@link Version}s of a sorted list that
+     * satisfy this constraint.
+     *
+     * @param sorted
+     *            the {@link Version}s, sorted by
+     *            {@link Versions#keyComparator}.
+     * @return the ranges as start (inclusive) and end (exclusive) pairs, in
+     *         increasing order.
+     */
+    int[] ranges(List<? extends Version> sorted)
+    {
+        int[] ret = new int[lows.length * 2];
+        for (int i = 0; i < lows.length; i++)
+        {
+            ret[i * 2] = firstAtOrAbove(sorted, i);
+            ret[i * 2 + 1] = Math.max(ret[i * 2], firstAbove(sorted, i));
+        }
+        
+        return ret;
+    }
+    
+    /**
+     * Gives the constraint matched by the {@link Version}s that satisfy both
+     * this and the other constraint.
+     *
+     * @param other
+     *            the other constraint.
+     * @return the intersection.
+     */
+    public VersionConstraint intersect(VersionConstraint other)
+    {
+        List<Interval> ret = new ArrayList<Interval>();
+        int i = 0;
+        int j = 0;
+        while (i < lows.length && j < other.lows.length)
+        {
+            Interval a = interval(i);
+            Interval b = other.interval(j);
+            Interval low = compareLows(a.low, a.lowInclusive, b.low, b.lowInclusive) >= 0 ? a : b;
+            Interval high = compareHighs(a.high, a.highInclusive, b.high, b.highInclusive) <= 0 ? a : b;
+            Interval both = new Interval(low.low, low.lowInclusive, high.high, high.highInclusive);
+            if (!both.isEmpty())
+            {
+                ret.add(both);
+            }
+            
+            // the interval ending first can not overlap anything further
+            if (high == a)
+            {
+                i++;
+            }
+            else
+            {
+                j++;
+            }
+        }
+        
+        return normalize(ret);
+    }
+    
+    /**
+     * Gives the constraint matched by the {@link Version}s that satisfy this or
+     * the other constraint.
+     *
+     * @param other
+     *            the other constraint.
+     * @return the union.
+     */
+    public VersionConstraint union(VersionConstraint other)
+    {
+        List<Interval> all = new ArrayList<Interval>(lows.length + other.lows.length);
+        for (int i = 0; i < lows.length; i++)
+        {
+            all.add(interval(i));
+        }
+        
+        for (int i = 0; i < other.lows.length; i++)
+        {
+            all.add(other.interval(i));
+        }
+        
+        return normalize(all);
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return toString().hashCode();
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        
+        if (!(obj instanceof VersionConstraint))
+        {
+            return false;
+        }
+        
+        return toString().equals(obj.toString());
+    }
+    
+    /**
+     * Gives the normalized constraint as Maven ranges, {@code []} when it is
+     * empty.
+     */
+    @Override
+    public String toString()
+    {
+        if (isEmpty())
+        {
+            return "[]";
+        }
+        
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lows.length; i++)
+        {
+            if (i > 0)
+            {
+                builder.append(',');
+            }
+            
+            if (lows[i] != null && lowInclusive[i] && highInclusive[i]
+                    && Versions.keyComparator.compare(lows[i], highs[i]) == 0)
+            {
+                builder.append('[').append(lows[i]).append(']');
+                continue;
+            }
+            
+            builder.append(lowInclusive[i] ? '[' : '(');
+            builder.append(lows[i] == null ? "" : lows[i].toString()).append(',');
+            builder.append(highs[i] == null ? "" : highs[i].toString());
+            builder.append(highInclusive[i] ? ']' : ')');
+        }
+        
+        return builder.toString();
+    }
+    
+    private Interval interval(int i)
+    {
+        return new Interval(lows[i], lowInclusive[i], highs[i], highInclusive[i]);
+    }
+    
+    /**
+     * Gives the last interval whose lower end the {@link Version} is not below,
+     * {@code -1} if there is none.
+     */
+    private int intervalAtOrBefore(Version v)
+    {
+        int lo = 0;
+        int hi = lows.length - 1;
+        int ret = -1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (aboveLow(v, mid))
+            {
+                ret = mid;
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid - 1;
+            }
+        }
+        
+        return ret;
+    }
+    
+    private boolean aboveLow(Version v, int i)
+    {
+        if (lows[i] == null)
+        {
+            return true;
+        }
+        
+        int c = Versions.keyComparator.compare(v, lows[i]);
+        return c > 0 || c == 0 && lowInclusive[i];
+    }
+    
+    private boolean belowHigh(Version v, int i)
+    {
+        if (highs[i] == null)
+        {
+            return true;
+        }
+        
+        int c = Versions.keyComparator.compare(v, highs[i]);
+        return c < 0 || c == 0 && highInclusive[i];
+    }
+    
+    /**
+     * Gives the index of the first {@link Version} in the list that is not
+     * below the interval.
+     */
+    private int firstAtOrAbove(List<? extends Version> sorted, int interval)
+    {
+        int lo = 0;
+        int hi = sorted.size();
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (aboveLow(sorted.get(mid), interval))
+            {
+                hi = mid;
+            }
+            else
+            {
+                lo = mid + 1;
+            }
+        }
+        
+        return lo;
+    }
+    
+    /**
+     * Gives the index of the first {@link Version} in the list that is above
+     * the interval.
+     */
+    private int firstAbove(List<? extends Version> sorted, int interval)
+    {
+        int lo = 0;
+        int hi = sorted.size();
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (belowHigh(sorted.get(mid), interval))
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+        
+        return lo;
+    }
+    
+    /**
+     * Compares two lower ends, {@code null} being the lowest.
+     */
+    private static int compareLows(Version a, boolean aInclusive, Version b, boolean bInclusive)
+    {
+        if (a == null || b == null)
+        {
+            return a == b ? 0 : a == null ? -1 : 1;
+        }
+        
+        int c = Versions.keyComparator.compare(a, b);
+        if (c != 0 || aInclusive == bInclusive)
+        {
+            return c;
+        }
+        
+        return aInclusive ? -1 : 1;
+    }
+    
+    /**
+     * Compares two upper ends, {@code null} being the highest.
+     */
+    private static int compareHighs(Version a, boolean aInclusive, Version b, boolean bInclusive)
+    {
+        if (a == null || b == null)
+        {
+            return a == b ? 0 : a == null ? 1 : -1;
+        }
+        
+        int c = Versions.keyComparator.compare(a, b);
+        if (c != 0 || aInclusive == bInclusive)
+        {
+            return c;
+        }
+        
+        return aInclusive ? 1 : -1;
+    }
+    
+    /**
+     * Sorts the intervals, drops the empty ones and merges the ones that
+     * overlap or touch.
+     */
+    private static VersionConstraint normalize(List<Interval> intervals)
+    {
+        List<Interval> sorted = new ArrayList<Interval>(intervals.size());
+        for (Interval interval : intervals)
+        {
+            if (!interval.isEmpty())
+            {
+                sorted.add(interval);
+            }
+        }
+        
+        Collections.sort(sorted);
+        List<Interval> merged = new ArrayList<Interval>(sorted.size());
+        for (Interval next : sorted)
+        {
+            Interval last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.touches(next))
+            {
+                if (compareHighs(next.high, next.highInclusive, last.high, last.highInclusive) > 0)
+                {
+                    merged.set(merged.size() - 1, new Interval(last.low, last.lowInclusive, next.high,
+                            next.highInclusive));
+                }
+            }
+            else
+            {
+                merged.add(next);
+            }
+        }
+        
+        int n = merged.size();
+        Version[] lows = new Version[n];
+        boolean[] lowInclusive = new boolean[n];
+        Version[] highs = new Version[n];
+        boolean[] highInclusive = new boolean[n];
+        for (int i = 0; i < n; i++)
+        {
+            Interval interval = merged.get(i);
+            lows[i] = interval.low;
+            lowInclusive[i] = interval.lowInclusive;
+            highs[i] = interval.high;
+            highInclusive[i] = interval.highInclusive;
+        }
+        
+        return new VersionConstraint(lows, lowInclusive, highs, highInclusive);
+    }
+    
+    /**
+     * One interval of {@link Version}s, used while building a constraint.
+     */
+    private static final class Interval implements Comparable<Interval>
+    {
+        private final Version low;
+        private final boolean lowInclusive;
+        private final Version high;
+        private final boolean highInclusive;
+        
+        private Interval(Version low, boolean lowInclusive, Version high, boolean highInclusive)
+        {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+        }
+        
+        private boolean isEmpty()
+        {
+            if (low == null || high == null)
+            {
+                return false;
+            }
+            
+            int c = Versions.keyComparator.compare(low, high);
+            return c > 0 || c == 0 && !(lowInclusive && highInclusive);
+        }
+        
+        /**
+         * Tells if the next interval, which does not start before this one,
+         * overlaps or continues this one.
+         */
+        private boolean touches(Interval next)
+        {
+            if (high == null || next.low == null)
+            {
+                return true;
+            }
+            
+            int c = Versions.keyComparator.compare(next.low, high);
+            return c < 0 || c == 0 && (highInclusive || next.lowInclusive);
+        }
+        
+        @Override
+        public int compareTo(Interval o)
+        {
+            return compareLows(low, lowInclusive, o.low, o.lowInclusive);
+        }
+    }
+    
+    /**
+     * Reads the constraint syntax described in {@link VersionConstraint}.
+     */
+    private static final class Parser
+    {
+        private final String s;
+        private int i = 0;
+        
+        private Parser(String s)
+        {
+            this.s = s;
+        }
+        
+        private VersionConstraint parse()
+        {
+            VersionConstraint ret = NONE;
+            skipWhitespace();
+            if (i == s.length())
+            {
+                throw error("Empty version constraint");
+            }
+            
+            while (true)
+            {
+                VersionConstraint set = ANY;
+                boolean any = false;
+                skipWhitespace();
+                while (i < s.length() && s.charAt(i) != ',' && !s.startsWith("||", i))
+                {
+                    set = set.intersect(term());
+                    any = true;
+                    skipWhitespace();
+                }
+                
+                if (!any)
+                {
+                    throw error("Missing version constraint");
+                }
+                
+                ret = ret.union(set);
+                if (i == s.length())
+                {
+                    return ret;
+                }
+                
+                i += s.charAt(i) == ',' ? 1 : 2;
+            }
+        }
+        
+        private VersionConstraint term()
+        {
+            char c = s.charAt(i);
+            if (c == '[' || c == '(')
+            {
+                return mavenRange();
+            }
+            
+            if (c == '^')
+            {
+                i++;
+                return caret();
+            }
+            
+            if (c == '~')
+            {
+                i++;
+                return tilde(token());
+            }
+            
+            if (s.startsWith(">=", i))
+            {
+                i += 2;
+                return range(version(token()), true, null, false);
+            }
+            
+            if (s.startsWith("<=", i))
+            {
+                i += 2;
+                return range(null, false, version(token()), true);
+            }
+            
+            if (c == '>')
+            {
+                i++;
+                return range(version(token()), false, null, false);
+            }
+            
+            if (c == '<')
+            {
+                i++;
+                return range(null, false, version(token()), false);
+            }
+            
+            if (c == '=')
+            {
+                i++;
+                return exactly(version(token()));
+            }
+            
+            String token = token();
+            if (token.equals("*"))
+            {
+                return ANY;
+            }
+            
+            if (token.endsWith(".x") || token.endsWith(".X") || token.endsWith(".*"))
+            {
+                return tilde(token.substring(0, token.length() - 2));
+            }
+            
+            return exactly(version(token));
+        }
+        
+        private VersionConstraint mavenRange()
+        {
+            boolean lowInclusive = s.charAt(i) == '[';
+            int close = i + 1;
+            while (close < s.length() && s.charAt(close) != ']' && s.charAt(close) != ')')
+            {
+                close++;
+            }
+            
+            if (close == s.length())
+            {
+                throw error("Unclosed version range");
+            }
+            
+            boolean highInclusive = s.charAt(close) == ']';
+            String inside = s.substring(i + 1, close);
+            i = close + 1;
+            
+            int comma = inside.indexOf(',');
+            if (comma < 0 && inside.trim().isEmpty() && lowInclusive && highInclusive)
+            {
+                // the empty constraint, as written by toString
+                return NONE;
+            }
+            
+            if (comma < 0)
+            {
+                if (!lowInclusive || !highInclusive)
+                {
+                    throw error("A range of one version must use []");
+                }
+                
+                return exactly(version(inside.trim()));
+            }
+            
+            String low = inside.substring(0, comma).trim();
+            String high = inside.substring(comma + 1).trim();
+            if (high.indexOf(',') >= 0)
+            {
+                throw error("A version range may only have two ends");
+            }
+            
+            return range(low.isEmpty() ? null : version(low), lowInclusive, high.isEmpty() ? null : version(high),
+                    highInclusive);
+        }
+        
+        private VersionConstraint caret()
+        {
+            String token = token();
+            int parts = numberCount(token);
+            Version low = version(token);
+            Version high;
+            if (low.major != 0 || parts == 1)
+            {
+                high = new Snapshot(low.major + 1, 0);
+            }
+            else if (low.minor != 0 || parts == 2)
+            {
+                high = new Snapshot(low.major, low.minor + 1);
+            }
+            else
+            {
+                high = nextPatch(low);
+            }
+            
+            return range(low, true, high, false);
+        }
+        
+        private VersionConstraint tilde(String token)
+        {
+            Version low = version(token);
+            Version high = numberCount(token) == 1 ? new Snapshot(low.major + 1, 0) : new Snapshot(low.major,
+                    low.minor + 1);
+            return range(low, true, high, false);
+        }
+        
+        /**
+         * Gives the lowest release with the next patch number, the lowest
+         * qualifier kind with build {@code 0}.
+         */
+        private Version nextPatch(Version v)
+        {
+            int patch = v instanceof Release ? ((Release) v).getPatch() : 0;
+            return new SemanticVersion(v.major, v.minor, patch + 1, Versions.ALPHA, 0);
+        }
+        
+        /**
+         * Reads a version token, up to whitespace or a character of the
+         * constraint syntax.
+         */
+        private String token()
+        {
+            skipWhitespace();
+            int start = i;
+            while (i < s.length())
+            {
+                char c = s.charAt(i);
+                if (Character.isWhitespace(c) || c == ',' || c == '|' || c == '[' || c == ']' || c == '('
+                        || c == ')')
+                {
+                    break;
+                }
+                i++;
+            }
+            
+            if (start == i)
+            {
+                throw error("Missing version");
+            }
+            
+            return s.substring(start, i);
+        }
+        
+        /**
+         * Parses a {@link Version}, filling in missing numbers with
+         * {@code 0}.
+         */
+        private Version version(String token)
+        {
+            int dash = token.indexOf('-');
+            String numbers = dash < 0 ? token : token.substring(0, dash);
+            String rest = dash < 0 ? "" : token.substring(dash);
+            int wanted = rest.equalsIgnoreCase("-" + Versions.SNAPSHOT) ? 2 : 3;
+            StringBuilder builder = new StringBuilder(numbers);
+            for (int n = numberCount(numbers); n < wanted; n++)
+            {
+                builder.append(".0");
+            }
+            
+            return Versions.parse(builder.append(rest));
+        }
+        
+        /**
+         * Counts the dot separated numbers before the qualifier.
+         */
+        private int numberCount(String token)
+        {
+            int n = 1;
+            for (int k = 0; k < token.length() && token.charAt(k) != '-'; k++)
+            {
+                if (token.charAt(k) == '.')
+                {
+                    n++;
+                }
+            }
+            
+            return n;
+        }
+        
+        private void skipWhitespace()
+        {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+            {
+                i++;
+            }
+        }
+        
+        private VersionFormatException error(String message)
+        {
+            return new VersionFormatException(message + " at index " + i + ": \"" + s + "\"");
+        }
+    }
+}
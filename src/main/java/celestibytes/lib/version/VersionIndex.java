@@ -0,0 +1,564 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A sorted set of the {@link Version}s of one artifact, for answering "which
+ * {@link Version} should this client get" questions in O(log n).
+ * <p/>
+ * The {@link Version}s are kept in a sorted array with a small sorted buffer
+ * next to it. New {@link Version}s go into the buffer, and the buffer is
+ * merged into the array once it holds more than about the square root of the
+ * array's size, so an insertion costs O(sqrt n) amortized and never a full
+ * sort. Queries look at both with binary searches. The stable releases are
+ * also kept on their own, so {@link #latestStable()} is a single lookup.
+ * {@link Version}s are ordered by {@link Versions#keyComparator}, and equal
+ * {@link Version}s are only stored once. {@link Version}s the order can not
+ * tell apart but that are not {@link Versions#equals(Version, Version)
+ * equal}, like {@code 1.0.0-rc1} and {@code 1.0.0-rc2}, are all kept, next to
+ * each other.
+ * <p/>
+ * Safe to use from many threads, queries only take a read lock.
+ *
+ * @author PizzAna
+ * @see Versions
+ * @see VersionConstraint
+ */
+public final class VersionIndex
+{
+    private static final int MIN_BUFFER = 32;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private final SortedRun all = new SortedRun();
+    private final SortedRun allBuffer = new SortedRun();
+    private final SortedRun stable = new SortedRun();
+    private final SortedRun stableBuffer = new SortedRun();
+    
+    /**
+     *
+     * Constructs a new, empty {@link VersionIndex}.
+     *
+     */
+    public VersionIndex()
+    {
+        
+    }
+    
+    /**
+     *
+     * Constructs a new {@link VersionIndex} holding the given {@link Version}s.
+     *
+     * @param versions
+     *            the {@link Version}s, in any order.
+     */
+    public VersionIndex(List<? extends Version> versions)
+    {
+        addAll(versions);
+    }
+    
+    /**
+     * Tells if the {@link Version} is a stable release, a {@link BigVersion}
+     * or a {@link SemanticVersion} without a qualifier.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return {@code true} if the {@link Version} is stable.
+     */
+    public static boolean isStable(Version v)
+    {
+        return v instanceof BigVersion || v instanceof SemanticVersion && ((SemanticVersion) v).isStable();
+    }
+    
+    /**
+     * Adds a {@link Version}.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return {@code true} if the {@link Version} was not in the index yet.
+     */
+    public boolean add(Version v)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if (all.contains(v) || allBuffer.contains(v))
+            {
+                return false;
+            }
+            
+            allBuffer.insert(v);
+            if (isStable(v))
+            {
+                stableBuffer.insert(v);
+            }
+            
+            mergeIfFull();
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds many {@link Version}s at once, with a single sort and merge.
+     *
+     * @param versions
+     *            the {@link Version}s, in any order.
+     */
+    public void addAll(List<? extends Version> versions)
+    {
+        Version[] sorted = versions.toArray(new Version[versions.size()]);
+        Arrays.sort(sorted, Versions.keyComparator);
+        
+        lock.writeLock().lock();
+        try
+        {
+            flush();
+            all.merge(sorted, sorted.length);
+            
+            int n = 0;
+            for (Version v : sorted)
+            {
+                if (isStable(v))
+                {
+                    sorted[n++] = v;
+                }
+            }
+            stable.merge(sorted, n);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Gives the amount of {@link Version}s in the index.
+     *
+     * @return the amount of {@link Version}s.
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return all.size + allBuffer.size;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Tells if an equal {@link Version} is in the index.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return {@code true} if the {@link Version} is in the index.
+     */
+    public boolean contains(Version v)
+    {
+        lock.readLock().lock();
+        try
+        {
+            return all.contains(v) || allBuffer.contains(v);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gives the newest {@link Version}.
+     *
+     * @return the newest {@link Version}, or {@code null} if the index is
+     *         empty.
+     */
+    public Version latest()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return newer(all.last(), allBuffer.last());
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gives the newest stable {@link Version}.
+     *
+     * @return the newest stable {@link Version}, or {@code null} if there is
+     *         none.
+     * @see #isStable(Version)
+     */
+    public Version latestStable()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return newer(stable.last(), stableBuffer.last());
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gives the newest {@link Version} that satisfies the constraint.
+     *
+     * @param constraint
+     *            the {@link VersionConstraint}.
+     * @return the newest matching {@link Version}, or {@code null} if none
+     *         match.
+     */
+    public Version latestMatching(VersionConstraint constraint)
+    {
+        lock.readLock().lock();
+        try
+        {
+            return newer(constraint.newest(all.asList()), constraint.newest(allBuffer.asList()));
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gives every {@link Version} from one {@link Version} up to another, both
+     * included.
+     *
+     * @param from
+     *            the oldest {@link Version} to give.
+     * @param to
+     *            the newest {@link Version} to give.
+     * @return the {@link Version}s in between, oldest first.
+     */
+    public List<Version> between(Version from, Version to)
+    {
+        return matching(VersionConstraint.range(from, true, to, true));
+    }
+    
+    /**
+     * Gives every {@link Version} that satisfies the constraint.
+     *
+     * @param constraint
+     *            the {@link VersionConstraint}.
+     * @return the matching {@link Version}s, oldest first.
+     */
+    public List<Version> matching(VersionConstraint constraint)
+    {
+        lock.readLock().lock();
+        try
+        {
+            List<Version> main = constraint.filter(all.asList());
+            List<Version> buffered = constraint.filter(allBuffer.asList());
+            if (buffered.isEmpty())
+            {
+                return main;
+            }
+            
+            List<Version> ret = new ArrayList<Version>(main.size() + buffered.size());
+            int i = 0;
+            int j = 0;
+            while (i < main.size() || j < buffered.size())
+            {
+                if (j == buffered.size() || i < main.size()
+                        && Versions.keyComparator.compare(main.get(i), buffered.get(j)) < 0)
+                {
+                    ret.add(main.get(i++));
+                }
+                else
+                {
+                    ret.add(buffered.get(j++));
+                }
+            }
+            
+            return ret;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gives the oldest {@link Version} that is newer than the given one, which
+     * does not have to be in the index.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return the next newer {@link Version}, or {@code null} if there is
+     *         none.
+     */
+    public Version nextNewer(Version v)
+    {
+        lock.readLock().lock();
+        try
+        {
+            Version a = all.firstAbove(v);
+            Version b = allBuffer.firstAbove(v);
+            if (a == null || b == null)
+            {
+                return a == null ? b : a;
+            }
+            
+            return Versions.keyComparator.compare(a, b) <= 0 ? a : b;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gives every {@link Version} in the index.
+     *
+     * @return the {@link Version}s, oldest first.
+     */
+    public List<Version> toList()
+    {
+        return matching(VersionConstraint.ANY);
+    }
+    
+    private void mergeIfFull()
+    {
+        int limit = Math.max(MIN_BUFFER, (int) Math.sqrt(all.size));
+        if (allBuffer.size > limit)
+        {
+            flush();
+        }
+    }
+    
+    private void flush()
+    {
+        all.mergeNew(allBuffer);
+        stable.mergeNew(stableBuffer);
+    }
+    
+    private static boolean same(Version a, Version b)
+    {
+        return a == null || b == null ? a == b : Versions.equals(a, b);
+    }
+    
+    private static Version newer(Version a, Version b)
+    {
+        if (a == null || b == null)
+        {
+            return a == null ? b : a;
+        }
+        
+        return Versions.keyComparator.compare(a, b) >= 0 ? a : b;
+    }
+    
+    /**
+     * A sorted array of {@link Version}s without duplicates.
+     */
+    private static final class SortedRun
+    {
+        private Version[] items = new Version[16];
+        private int size = 0;
+        
+        /**
+         * Gives the index of the first item not older than the
+         * {@link Version}.
+         */
+        private int lowerBound(Version v)
+        {
+            return lowerBound(v, size);
+        }
+        
+        private int lowerBound(Version v, int hi)
+        {
+            int lo = 0;
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (Versions.keyComparator.compare(items[mid], v) < 0)
+                {
+                    lo = mid + 1;
+                }
+                else
+                {
+                    hi = mid;
+                }
+            }
+            
+            return lo;
+        }
+        
+        private boolean contains(Version v)
+        {
+            for (int i = lowerBound(v); i < size && Versions.keyComparator.compare(items[i], v) == 0; i++)
+            {
+                if (same(items[i], v))
+                {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        private Version last()
+        {
+            return size == 0 ? null : items[size - 1];
+        }
+        
+        private Version firstAbove(Version v)
+        {
+            int i = lowerBound(v);
+            while (i < size && Versions.keyComparator.compare(items[i], v) == 0)
+            {
+                i++;
+            }
+            
+            return i < size ? items[i] : null;
+        }
+        
+        private void insert(Version v)
+        {
+            int i = lowerBound(v);
+            if (size == items.length)
+            {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            
+            System.arraycopy(items, i, items, i + 1, size - i);
+            items[i] = v;
+            size++;
+        }
+        
+        /**
+         * Merges sorted {@link Version}s in, skipping the ones already here.
+         */
+        private void merge(Version[] other, int count)
+        {
+            if (count == 0)
+            {
+                return;
+            }
+            
+            Version[] merged = new Version[Math.max(16, size + count)];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < size || j < count)
+            {
+                Version next;
+                if (j == count || i < size && Versions.keyComparator.compare(items[i], other[j]) <= 0)
+                {
+                    next = items[i++];
+                }
+                else
+                {
+                    next = other[j++];
+                }
+                
+                if (!endsWith(merged, n, next))
+                {
+                    merged[n++] = next;
+                }
+            }
+            
+            items = merged;
+            size = n;
+        }
+        
+        /**
+         * Tells if one of the last items of a sorted array that the order can
+         * not tell apart from the {@link Version} is equal to it.
+         */
+        private static boolean endsWith(Version[] sorted, int n, Version v)
+        {
+            for (int i = n - 1; i >= 0 && Versions.keyComparator.compare(sorted[i], v) == 0; i--)
+            {
+                if (same(sorted[i], v))
+                {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        /**
+         * Moves the items of a small run in, which must not have any items
+         * that are here already. Works from the back in place, so the items
+         * in between are moved with block copies and not compared.
+         */
+        private void mergeNew(SortedRun other)
+        {
+            if (size + other.size > items.length)
+            {
+                items = Arrays.copyOf(items, Math.max(size + other.size, items.length * 2));
+            }
+            
+            int end = size;
+            for (int j = other.size - 1; j >= 0; j--)
+            {
+                int i = lowerBound(other.items[j], end);
+                System.arraycopy(items, i, items, i + j + 1, end - i);
+                items[i + j] = other.items[j];
+                end = i;
+            }
+            
+            size += other.size;
+            Arrays.fill(other.items, 0, other.size, null);
+            other.size = 0;
+        }
+        
+        /**
+         * Gives a read-only view of the items, without copying them.
+         */
+        private List<Version> asList()
+        {
+            return new AbstractList<Version>()
+            {
+                @Override
+                public Version get(int index)
+                {
+                    if (index >= size)
+                    {
+                        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                    }
+                    
+                    return items[index];
+                }
+                
+                @Override
+                public int size()
+                {
+                    return size;
+                }
+            };
+        }
+    }
+}
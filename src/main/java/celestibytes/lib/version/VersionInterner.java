@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+/**
+ * The intern tables behind {@link Versions#intern(Version)} and
+ * {@link Versions#parse(CharSequence)}.
+ * <p/>
+ * Both tables are 4-way set associative: every {@link Version} or
+ * {@link String} maps to a set of four slots, so a few entries that land in
+ * the same set do not push each other out. A hit in a set moves the entry one
+ * slot towards the front, and a new entry goes in front and pushes the last
+ * one out, so entries that keep being used stay while one-off ones leave
+ * first. That keeps the tables bounded without any bookkeeping beyond the
+ * order of the slots, and since {@link Version}s are immutable the slots can
+ * be read and written without locking. A lost race only means an entry is
+ * created twice or dropped early.
+ *
+ * @author PizzAna
+ * @see Versions
+ */
+final class VersionInterner
+{
+    /**
+     * The amount of sets in each table, a power of two.
+     */
+    private static final int SETS = 1024;
+    
+    /**
+     * The amount of slots in each set, a power of two.
+     */
+    private static final int WAYS = 4;
+    
+    /**
+     * The interned {@link Version}s, the slots of a set next to each other.
+     */
+    private static final Version[] versions = new Version[SETS * WAYS];
+    
+    /**
+     * The {@link Version}s of recently parsed {@link String}s.
+     */
+    private static final Parsed[] parsed = new Parsed[SETS * WAYS];
+    
+    /**
+     *
+     * Constructs a new {@link VersionInterner}.
+     *
+     */
+    private VersionInterner()
+    {
+        
+    }
+    
+    /**
+     * Gives the shared {@link Version} equal to the given one, making the given
+     * one the shared one if there is none.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return the shared {@link Version}.
+     */
+    static Version intern(Version v)
+    {
+        int base = set(v.hashCode());
+        for (int i = base; i < base + WAYS; i++)
+        {
+            Version shared = versions[i];
+            if (shared == null)
+            {
+                break;
+            }
+            
+            // the classes have to match, a Snapshot equals every Version with the same major and minor
+            if (shared.getClass() == v.getClass() && shared.equals(v))
+            {
+                if (i > base)
+                {
+                    versions[i] = versions[i - 1];
+                    versions[i - 1] = shared;
+                }
+                
+                return shared;
+            }
+        }
+        
+        System.arraycopy(versions, base, versions, base + 1, WAYS - 1);
+        versions[base] = v;
+        return v;
+    }
+    
+    /**
+     * Parses the {@link CharSequence}, returning the same {@link Version} as
+     * last time if it was parsed recently.
+     *
+     * @param s
+     *            the {@link CharSequence}.
+     * @return the shared {@link Version}.
+     * @throws VersionFormatException
+     *             if the {@link CharSequence} does not contain a parsable
+     *             {@link Version}.
+     */
+    static Version parse(CharSequence s)
+    {
+        int hash = s instanceof String ? s.hashCode() : hash(s);
+        int base = set(hash);
+        for (int i = base; i < base + WAYS; i++)
+        {
+            Parsed entry = parsed[i];
+            if (entry == null)
+            {
+                break;
+            }
+            
+            if (entry.hash == hash && contentEquals(entry.string, s))
+            {
+                if (i > base)
+                {
+                    parsed[i] = parsed[i - 1];
+                    parsed[i - 1] = entry;
+                }
+                
+                return entry.version;
+            }
+        }
+        
+        Version v = intern(VersionParser.parse(s, 0, s.length()));
+        System.arraycopy(parsed, base, parsed, base + 1, WAYS - 1);
+        parsed[base] = new Parsed(s.toString(), hash, v);
+        return v;
+    }
+    
+    /**
+     * Gives the same hash as {@link String#hashCode()} would.
+     */
+    private static int hash(CharSequence s)
+    {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            h = 31 * h + s.charAt(i);
+        }
+        
+        return h;
+    }
+    
+    private static boolean contentEquals(String string, CharSequence s)
+    {
+        return s instanceof String ? string.equals(s) : string.contentEquals(s);
+    }
+    
+    /**
+     * Gives the first slot of the set of the hash. The high bits of the hash
+     * are mixed into the low ones the set is taken from.
+     */
+    private static int set(int h)
+    {
+        h *= 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & (SETS - 1)) * WAYS;
+    }
+    
+    /**
+     * A parsed {@link String} and its {@link Version}, immutable so it can be
+     * published without locking.
+     */
+    private static final class Parsed
+    {
+        private final String string;
+        private final int hash;
+        private final Version version;
+        
+        private Parsed(String string, int hash, Version version)
+        {
+            this.string = string;
+            this.hash = hash;
+            this.version = version;
+        }
+    }
+}
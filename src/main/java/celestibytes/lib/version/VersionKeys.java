@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+/**
+ * Packs {@link Version}s into sortable {@code long} keys, see
+ * {@link Versions#key(Version)}.
+ * <p/>
+ * From the highest bit down a key holds 14 bits of major, 14 bits of minor,
+ * 1 release bit (0 for {@link Snapshot}s), 14 bits of patch, 2 bits of kind
+ * (alpha, beta, other qualifier, stable) and 16 bits of build, 61 bits in all.
+ * A {@link Snapshot} has only the major and the minor, and a stable
+ * {@link SemanticVersion} has the build 0 like the matching
+ * {@link BigVersion}. Numbers that do not fit are clamped, and such keys are
+ * marked as inexact.
+ * <p/>
+ * The key is computed the first time it is needed and kept in
+ * {@link Version#packedKey}, shifted up by two with the low bits used as flags.
+ *
+ * @author PizzAna
+ * @see Versions
+ */
+final class VersionKeys
+{
+    /**
+     * Set in a stored key once it has been computed.
+     */
+    static final long COMPUTED = 1L;
+    
+    /**
+     * Set in a stored key if some number did not fit.
+     */
+    static final long INEXACT = 2L;
+    
+    static final int KIND_ALPHA = 0;
+    static final int KIND_BETA = 1;
+    static final int KIND_OTHER = 2;
+    static final int KIND_STABLE = 3;
+    
+    private static final int MAJOR_SHIFT = 47;
+    private static final int MINOR_SHIFT = 33;
+    private static final int RELEASE_SHIFT = 32;
+    private static final int PATCH_SHIFT = 18;
+    private static final int KIND_SHIFT = 16;
+    
+    private static final int NUMBER_MAX = (1 << 14) - 1;
+    private static final int BUILD_MAX = (1 << 16) - 1;
+    
+    /**
+     *
+     * Constructs a new {@link VersionKeys}.
+     *
+     */
+    private VersionKeys()
+    {
+        
+    }
+    
+    /**
+     * Gives the stored form of the {@link Version}'s key, computing it if
+     * needed.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return the key shifted up by two, with {@link #COMPUTED} and maybe
+     *         {@link #INEXACT} set.
+     */
+    static long stored(Version v)
+    {
+        long stored = v.packedKey;
+        if (stored == 0L)
+        {
+            stored = compute(v);
+            v.packedKey = stored;
+        }
+        
+        return stored;
+    }
+    
+    /**
+     * Gives the key of the {@link Version}.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return the key.
+     */
+    static long key(Version v)
+    {
+        return stored(v) >>> 2;
+    }
+    
+    /**
+     * Tells if the key of the {@link Version} holds all of its numbers.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return {@code true} if nothing had to be clamped.
+     */
+    static boolean isExact(Version v)
+    {
+        return (stored(v) & INEXACT) == 0L;
+    }
+    
+    /**
+     * Gives the kind of a {@link SemanticVersion}'s qualifier.
+     *
+     * @param s
+     *            the {@link SemanticVersion}.
+     * @return one of the {@code KIND} constants.
+     */
+    static int kind(SemanticVersion s)
+    {
+        if (s.isStable())
+        {
+            return KIND_STABLE;
+        }
+        
+        if (s.isAlpha())
+        {
+            return KIND_ALPHA;
+        }
+        
+        return s.isBeta() ? KIND_BETA : KIND_OTHER;
+    }
+    
+    /**
+     * Packs the numbers into a stored key.
+     *
+     * @param major
+     *            the major version number.
+     * @param minor
+     *            the minor version number.
+     * @param release
+     *            {@code false} for snapshots.
+     * @param patch
+     *            the patch version number.
+     * @param kind
+     *            the qualifier kind.
+     * @param build
+     *            the build.
+     * @param exact
+     *            {@code false} if the key is inexact anyway.
+     * @return the stored key.
+     */
+    static long pack(int major, int minor, boolean release, int patch, int kind, int build, boolean exact)
+    {
+        exact &= fits(major, NUMBER_MAX) && fits(minor, NUMBER_MAX) && fits(patch, NUMBER_MAX) && fits(build, BUILD_MAX);
+        long key = (long) clamp(major, NUMBER_MAX) << MAJOR_SHIFT | (long) clamp(minor, NUMBER_MAX) << MINOR_SHIFT
+                | (release ? 1L : 0L) << RELEASE_SHIFT | (long) clamp(patch, NUMBER_MAX) << PATCH_SHIFT
+                | (long) kind << KIND_SHIFT | clamp(build, BUILD_MAX);
+        return key << 2 | COMPUTED | (exact ? 0L : INEXACT);
+    }
+    
+    /**
+     * Gives the major version number held in a key.
+     *
+     * @param key
+     *            the key, as given by {@link #key(Version)}.
+     * @return the major version number.
+     */
+    static int major(long key)
+    {
+        return (int) (key >>> MAJOR_SHIFT) & NUMBER_MAX;
+    }
+    
+    /**
+     * Gives the minor version number held in a key.
+     *
+     * @param key
+     *            the key, as given by {@link #key(Version)}.
+     * @return the minor version number.
+     */
+    static int minor(long key)
+    {
+        return (int) (key >>> MINOR_SHIFT) & NUMBER_MAX;
+    }
+    
+    /**
+     * Gives the patch version number held in a key.
+     *
+     * @param key
+     *            the key, as given by {@link #key(Version)}.
+     * @return the patch version number.
+     */
+    static int patch(long key)
+    {
+        return (int) (key >>> PATCH_SHIFT) & NUMBER_MAX;
+    }
+    
+    /**
+     * Gives the build held in a key.
+     *
+     * @param key
+     *            the key, as given by {@link #key(Version)}.
+     * @return the build.
+     */
+    static int build(long key)
+    {
+        return (int) key & BUILD_MAX;
+    }
+    
+    private static long compute(Version v)
+    {
+        if (v instanceof Snapshot)
+        {
+            return pack(v.major, v.minor, false, 0, 0, 0, true);
+        }
+        
+        if (v instanceof BigVersion)
+        {
+            BigVersion b = (BigVersion) v;
+            return pack(b.major, b.minor, true, b.patch, KIND_STABLE, b.build, true);
+        }
+        
+        if (v instanceof SemanticVersion)
+        {
+            SemanticVersion s = (SemanticVersion) v;
+            int kind = kind(s);
+            return pack(s.major, s.minor, true, s.patch, kind, kind == KIND_STABLE ? 0 : s.build, true);
+        }
+        
+        // some other kind of version, the comparator knows best where it goes
+        return pack(v.major, v.minor, v.isRelease(), 0, 0, 0, false);
+    }
+    
+    private static boolean fits(int n, int max)
+    {
+        return n >= 0 && n <= max;
+    }
+    
+    private static int clamp(int n, int max)
+    {
+        return n < 0 ? 0 : n > max ? max : n;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single pass {@link Version} parser behind {@link Versions#parse(CharSequence)}.
+ * <p/>
+ * The numbers are accumulated straight from the input and the only objects
+ * created are the {@link Version} itself and, for unknown qualifiers, the
+ * qualifier {@link String}. The accepted format is
+ * {@code major.minor[.patch][-qualifier][.build]}, where a patch is required
+ * unless the qualifier is {@value Versions#SNAPSHOT}. Surrounding whitespace is
+ * ignored. Byte input is read as ASCII, with the qualifier decoded as UTF-8.
+ *
+ * @author PizzAna
+ * @see Versions
+ */
+final class VersionParser
+{
+    /**
+     *
+     * Constructs a new {@link VersionParser}.
+     *
+     */
+    private VersionParser()
+    {
+        
+    }
+    
+    /**
+     * Parses a {@link Version} from a range of the given {@link CharSequence}.
+     *
+     * @param chars
+     *            the {@link CharSequence}.
+     * @param from
+     *            the index of the first character.
+     * @param to
+     *            the index after the last character.
+     * @return the parsed {@link Version}.
+     * @throws VersionFormatException
+     *             if the range does not contain a parsable {@link Version}.
+     */
+    static Version parse(CharSequence chars, int from, int to)
+    {
+        return parse(chars, null, null, from, to);
+    }
+    
+    /**
+     * Parses a {@link Version} from a range of the given bytes.
+     *
+     * @param bytes
+     *            the bytes.
+     * @param from
+     *            the index of the first byte.
+     * @param to
+     *            the index after the last byte.
+     * @return the parsed {@link Version}.
+     * @throws VersionFormatException
+     *             if the range does not contain a parsable {@link Version}.
+     */
+    static Version parse(byte[] bytes, int from, int to)
+    {
+        return parse(null, bytes, null, from, to);
+    }
+    
+    /**
+     * Parses a {@link Version} from a range of the given {@link ByteBuffer},
+     * without moving its position.
+     *
+     * @param buffer
+     *            the {@link ByteBuffer}.
+     * @param from
+     *            the index of the first byte.
+     * @param to
+     *            the index after the last byte.
+     * @return the parsed {@link Version}.
+     * @throws VersionFormatException
+     *             if the range does not contain a parsable {@link Version}.
+     */
+    static Version parse(ByteBuffer buffer, int from, int to)
+    {
+        return parse(null, null, buffer, from, to);
+    }
+    
+    /**
+     * Parses a {@link Version} from whichever of the sources is not
+     * {@code null}.
+     */
+    private static Version parse(CharSequence chars, byte[] bytes, ByteBuffer buffer, int from, int to)
+    {
+        int start = from;
+        int end = to;
+        
+        while (start < end && isWhitespace(charAt(chars, bytes, buffer, start)))
+        {
+            start++;
+        }
+        
+        while (end > start && isWhitespace(charAt(chars, bytes, buffer, end - 1)))
+        {
+            end--;
+        }
+        
+        int i = start;
+        long number = 0L;
+        int digits = 0;
+        
+        // major
+        while (i < end && isDigit(charAt(chars, bytes, buffer, i)))
+        {
+            number = accumulate(number, charAt(chars, bytes, buffer, i), chars, bytes, buffer, start, end);
+            digits++;
+            i++;
+        }
+        
+        if (digits == 0)
+        {
+            throw error("Major may not be null", chars, bytes, buffer, start, end);
+        }
+        
+        int major = (int) number;
+        i = expect('.', i, chars, bytes, buffer, start, end);
+        
+        // minor
+        number = 0L;
+        digits = 0;
+        while (i < end && isDigit(charAt(chars, bytes, buffer, i)))
+        {
+            number = accumulate(number, charAt(chars, bytes, buffer, i), chars, bytes, buffer, start, end);
+            digits++;
+            i++;
+        }
+        
+        if (digits == 0)
+        {
+            throw error("Minor may not be null", chars, bytes, buffer, start, end);
+        }
+        
+        int minor = (int) number;
+        int patch = -1;
+        
+        // patch, left out only by snapshots
+        if (i < end && charAt(chars, bytes, buffer, i) == '.')
+        {
+            i++;
+            number = 0L;
+            digits = 0;
+            while (i < end && isDigit(charAt(chars, bytes, buffer, i)))
+            {
+                number = accumulate(number, charAt(chars, bytes, buffer, i), chars, bytes, buffer, start, end);
+                digits++;
+                i++;
+            }
+            
+            if (digits == 0)
+            {
+                throw error("Patch may not be empty", chars, bytes, buffer, start, end);
+            }
+            
+            patch = (int) number;
+        }
+        
+        // qualifier
+        int qualifierStart = -1;
+        int qualifierEnd = -1;
+        if (i < end && charAt(chars, bytes, buffer, i) == '-')
+        {
+            i++;
+            qualifierStart = i;
+            while (i < end && charAt(chars, bytes, buffer, i) != '.')
+            {
+                i++;
+            }
+            qualifierEnd = i;
+            
+            if (qualifierStart == qualifierEnd)
+            {
+                throw error("Qualifier may not be empty", chars, bytes, buffer, start, end);
+            }
+            
+            if (matches(Versions.SNAPSHOT, true, chars, bytes, buffer, qualifierStart, qualifierEnd))
+            {
+                if (i != end)
+                {
+                    throw error("A snapshot may not have a build", chars, bytes, buffer, start, end);
+                }
+                
+                return new Snapshot(major, minor);
+            }
+        }
+        
+        if (patch < 0)
+        {
+            throw error("Patch may not be null", chars, bytes, buffer, start, end);
+        }
+        
+        // build
+        int build = -1;
+        if (i < end)
+        {
+            i = expect('.', i, chars, bytes, buffer, start, end);
+            number = 0L;
+            digits = 0;
+            while (i < end && isDigit(charAt(chars, bytes, buffer, i)))
+            {
+                number = accumulate(number, charAt(chars, bytes, buffer, i), chars, bytes, buffer, start, end);
+                digits++;
+                i++;
+            }
+            
+            if (digits == 0 || i != end)
+            {
+                throw error("Build must be a number", chars, bytes, buffer, start, end);
+            }
+            
+            build = (int) number;
+        }
+        
+        if (qualifierStart < 0)
+        {
+            return build < 0 ? new SemanticVersion(major, minor, patch) : new BigVersion(major, minor, patch, build);
+        }
+        
+        String qualifier = qualifier(chars, bytes, buffer, qualifierStart, qualifierEnd);
+        return build < 0 ? new SemanticVersion(major, minor, patch, qualifier) : new SemanticVersion(major, minor,
+                patch, qualifier, build);
+    }
+    
+    /**
+     * Gives the qualifier, reusing {@link Versions#ALPHA} and
+     * {@link Versions#BETA} when it is one of them.
+     */
+    private static String qualifier(CharSequence chars, byte[] bytes, ByteBuffer buffer, int from, int to)
+    {
+        if (matches(Versions.ALPHA, false, chars, bytes, buffer, from, to))
+        {
+            return Versions.ALPHA;
+        }
+        
+        if (matches(Versions.BETA, false, chars, bytes, buffer, from, to))
+        {
+            return Versions.BETA;
+        }
+        
+        if (chars != null)
+        {
+            return chars.subSequence(from, to).toString();
+        }
+        
+        if (bytes != null)
+        {
+            return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        }
+        
+        byte[] copy = new byte[to - from];
+        for (int i = 0; i < copy.length; i++)
+        {
+            copy[i] = buffer.get(from + i);
+        }
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+    
+    private static boolean matches(String expected, boolean ignoreCase, CharSequence chars, byte[] bytes,
+            ByteBuffer buffer, int from, int to)
+    {
+        if (to - from != expected.length())
+        {
+            return false;
+        }
+        
+        for (int i = 0; i < expected.length(); i++)
+        {
+            int c = charAt(chars, bytes, buffer, from + i);
+            int e = expected.charAt(i);
+            if (c != e && !(ignoreCase && Character.toLowerCase(c) == Character.toLowerCase(e)))
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private static int expect(char c, int i, CharSequence chars, byte[] bytes, ByteBuffer buffer, int start, int end)
+    {
+        if (i >= end || charAt(chars, bytes, buffer, i) != c)
+        {
+            throw error("Expected '" + c + "' at index " + (i - start), chars, bytes, buffer, start, end);
+        }
+        
+        return i + 1;
+    }
+    
+    private static long accumulate(long number, int digit, CharSequence chars, byte[] bytes, ByteBuffer buffer,
+            int start, int end)
+    {
+        number = number * 10L + (digit - '0');
+        if (number > Integer.MAX_VALUE)
+        {
+            throw error("Number is too large", chars, bytes, buffer, start, end);
+        }
+        
+        return number;
+    }
+    
+    private static int charAt(CharSequence chars, byte[] bytes, ByteBuffer buffer, int i)
+    {
+        if (chars != null)
+        {
+            return chars.charAt(i);
+        }
+        
+        if (bytes != null)
+        {
+            return bytes[i] & 0xFF;
+        }
+        
+        return buffer.get(i) & 0xFF;
+    }
+    
+    private static boolean isDigit(int c)
+    {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isWhitespace(int c)
+    {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f';
+    }
+    
+    private static VersionFormatException error(String message, CharSequence chars, byte[] bytes, ByteBuffer buffer,
+            int start, int end)
+    {
+        StringBuilder input = new StringBuilder(end - start);
+        for (int i = start; i < end; i++)
+        {
+            input.append((char) charAt(chars, bytes, buffer, i));
+        }
+        
+        return new VersionFormatException(message + ": \"" + input + "\"");
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads long listings of {@link Version}s, one per line or separated by some
+ * other byte, straight from a file or a {@link ReadableByteChannel}.
+ * <p/>
+ * The channel is read into a reused buffer and every entry is parsed where
+ * it lies in the buffer, without making a {@link String} of it first.
+ * Surrounding whitespace is ignored, so {@code \r\n} line ends and spaces
+ * after commas are fine, and blank entries are skipped. The
+ * {@link Version}s are either collected into {@link VersionColumns} or handed
+ * to a {@link Handler} one by one. A url can be read with
+ * {@link java.nio.channels.Channels#newChannel(java.io.InputStream)}.
+ *
+ * @author PizzAna
+ * @see VersionColumns
+ * @see Versions#parse(byte[], int, int)
+ */
+public final class VersionReader
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     *
+     * Constructs a new {@link VersionReader}.
+     *
+     */
+    private VersionReader()
+    {
+        
+    }
+    
+    /**
+     * Reads a file with one {@link Version} per line.
+     *
+     * @param path
+     *            the file.
+     * @return the {@link Version}s, in the order of the file.
+     * @throws IOException
+     *             if the file cannot be read.
+     * @throws VersionFormatException
+     *             if a line is not a {@link Version}.
+     */
+    public static VersionColumns read(Path path) throws IOException
+    {
+        return read(path, (byte) '\n');
+    }
+    
+    /**
+     * Reads a file of {@link Version}s separated by the given byte.
+     *
+     * @param path
+     *            the file.
+     * @param delimiter
+     *            the byte between two {@link Version}s.
+     * @return the {@link Version}s, in the order of the file.
+     * @throws IOException
+     *             if the file cannot be read.
+     * @throws VersionFormatException
+     *             if an entry is not a {@link Version}.
+     */
+    public static VersionColumns read(Path path, byte delimiter) throws IOException
+    {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            return read(channel, delimiter);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Reads {@link Version}s separated by the given byte until the end of the
+     * channel. The channel is not closed.
+     *
+     * @param channel
+     *            the channel, in blocking mode.
+     * @param delimiter
+     *            the byte between two {@link Version}s.
+     * @return the {@link Version}s, in the order of the channel.
+     * @throws IOException
+     *             if the channel cannot be read.
+     * @throws VersionFormatException
+     *             if an entry is not a {@link Version}.
+     */
+    public static VersionColumns read(ReadableByteChannel channel, byte delimiter) throws IOException
+    {
+        final VersionColumns columns = new VersionColumns();
+        read(channel, delimiter, false, new Handler()
+        {
+            @Override
+            public void version(long entry, Version version)
+            {
+                columns.add(version);
+            }
+            
+            @Override
+            public void error(long entry, VersionFormatException e)
+            {
+                throw new VersionFormatException("Entry " + entry + ": " + e.getMessage());
+            }
+        });
+        
+        return columns;
+    }
+    
+    /**
+     * Reads {@link Version}s separated by the given byte until the end of the
+     * channel and hands them to the {@link Handler} as they are parsed. The
+     * channel is not closed.
+     *
+     * @param channel
+     *            the channel, in blocking mode.
+     * @param delimiter
+     *            the byte between two {@link Version}s.
+     * @param handler
+     *            the {@link Handler}.
+     * @throws IOException
+     *             if the channel cannot be read.
+     */
+    public static void read(ReadableByteChannel channel, byte delimiter, Handler handler) throws IOException
+    {
+        read(channel, delimiter, true, handler);
+    }
+    
+    private static void read(ReadableByteChannel channel, byte delimiter, boolean intern, Handler handler)
+            throws IOException
+    {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long entry = 0L;
+        int start = 0;
+        int scanned = 0;
+        
+        while (true)
+        {
+            boolean end = channel.read(buffer) < 0;
+            int filled = buffer.position();
+            for (int i = scanned; i < filled; i++)
+            {
+                if (bytes[i] == delimiter)
+                {
+                    handle(bytes, start, i, ++entry, intern, handler);
+                    start = i + 1;
+                }
+            }
+            
+            if (end)
+            {
+                handle(bytes, start, filled, ++entry, intern, handler);
+                return;
+            }
+            
+            if (filled == bytes.length)
+            {
+                if (start == 0)
+                {
+                    // a single entry fills the buffer, it has to grow
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    buffer = ByteBuffer.wrap(bytes);
+                }
+                else
+                {
+                    System.arraycopy(bytes, start, bytes, 0, filled - start);
+                }
+                
+                filled -= start;
+                start = 0;
+                buffer.position(filled);
+            }
+            
+            scanned = filled;
+        }
+    }
+    
+    private static void handle(byte[] bytes, int from, int to, long entry, boolean intern, Handler handler)
+    {
+        int i = from;
+        while (i < to && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r' || bytes[i] == '\n'
+                || bytes[i] == '\f'))
+        {
+            i++;
+        }
+        
+        if (i == to)
+        {
+            return;
+        }
+        
+        Version version;
+        try
+        {
+            version = VersionParser.parse(bytes, from, to);
+        }
+        catch (VersionFormatException e)
+        {
+            handler.error(entry, e);
+            return;
+        }
+        
+        handler.version(entry, intern ? VersionInterner.intern(version) : version);
+    }
+    
+    /**
+     * Is given the {@link Version}s read by
+     * {@link VersionReader#read(ReadableByteChannel, byte, Handler)}.
+     */
+    public interface Handler
+    {
+        /**
+         * Called for every {@link Version}, in order.
+         *
+         * @param entry
+         *            the number of the entry, counting from 1 and including
+         *            blank ones, so the line number for lines.
+         * @param version
+         *            the {@link Version}.
+         */
+        public void version(long entry, Version version);
+        
+        /**
+         * Called for every entry that is not a {@link Version}. Throwing
+         * stops the reading.
+         *
+         * @param entry
+         *            the number of the entry.
+         * @param e
+         *            the reason.
+         */
+        public void error(long entry, VersionFormatException e);
+    }
+}
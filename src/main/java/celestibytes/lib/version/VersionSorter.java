@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2014 Celestibytes
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ */
+
+package celestibytes.lib.version;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Sorts {@link Version} arrays by their {@link Versions#key(Version) keys},
+ * see {@link Versions#sort(Version[])}.
+ * <p/>
+ * The keys are copied into a {@code long} array next to an array of
+ * positions, the pairs are sorted with an LSD radix sort on the key bytes
+ * and the {@link Version}s are then put where their positions say. Bytes
+ * that are the same in every key are skipped, so the usual small major and
+ * minor numbers cost no passes. The parallel sort radix sorts pieces of the
+ * array at the same time and merges them by key.
+ *
+ * @author PizzAna
+ * @see Versions
+ */
+final class VersionSorter
+{
+    /**
+     * Below this many {@link Version}s the sort does not bother with keys.
+     */
+    private static final int SMALL = 48;
+    
+    /**
+     * The smallest piece the parallel sort gives to one thread.
+     */
+    private static final int PARALLEL_PIECE = 1 << 15;
+    
+    /**
+     * Given to {@code null}s in place of a key, every real key is one higher
+     * than its {@link Versions#key(Version)}.
+     */
+    private static final long NULL_KEY = 0L;
+    
+    /**
+     * Given to {@link Version}s with inexact keys, which can not be radix
+     * sorted.
+     */
+    private static final long NO_KEY = -1L;
+    
+    /**
+     *
+     * Constructs a new {@link VersionSorter}.
+     *
+     */
+    private VersionSorter()
+    {
+        
+    }
+    
+    /**
+     * Sorts the array on the current thread.
+     *
+     * @param a
+     *            the array.
+     */
+    static void sort(Version[] a)
+    {
+        int n = a.length;
+        if (n < SMALL)
+        {
+            Arrays.sort(a, Versions.keyComparator);
+            return;
+        }
+        
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            keys[i] = sortKey(a[i]);
+        }
+        
+        if (!checkKeys(keys))
+        {
+            Arrays.sort(a, Versions.keyComparator);
+            return;
+        }
+        
+        if (isSorted(keys))
+        {
+            return;
+        }
+        
+        int[] order = identity(n);
+        radixSort(keys, order, new long[n], new int[n], 0, n);
+        
+        Version[] sorted = new Version[n];
+        for (int i = 0; i < n; i++)
+        {
+            sorted[i] = a[order[i]];
+        }
+        
+        System.arraycopy(sorted, 0, a, 0, n);
+    }
+    
+    /**
+     * Sorts the array using the common {@link ForkJoinPool}.
+     *
+     * @param a
+     *            the array.
+     */
+    static void parallelSort(final Version[] a)
+    {
+        int n = a.length;
+        if (n < PARALLEL_PIECE * 2 || ForkJoinPool.getCommonPoolParallelism() < 2)
+        {
+            sort(a);
+            return;
+        }
+        
+        long[] keys = new long[n];
+        Arrays.parallelSetAll(keys, new IntToLongFunction()
+        {
+            @Override
+            public long applyAsLong(int i)
+            {
+                return sortKey(a[i]);
+            }
+        });
+        
+        if (!checkKeys(keys))
+        {
+            Arrays.parallelSort(a, Versions.keyComparator);
+            return;
+        }
+        
+        if (isSorted(keys))
+        {
+            return;
+        }
+        
+        final int[] order = identity(n);
+        ForkJoinPool.commonPool().invoke(new SortTask(keys, order, new long[n], new int[n], 0, n));
+        
+        final Version[] sorted = new Version[n];
+        Arrays.parallelSetAll(sorted, new IntFunction<Version>()
+        {
+            @Override
+            public Version apply(int i)
+            {
+                return a[order[i]];
+            }
+        });
+        
+        System.arraycopy(sorted, 0, a, 0, n);
+    }
+    
+    private static long sortKey(Version v)
+    {
+        if (v == null)
+        {
+            return NULL_KEY;
+        }
+        
+        long stored = VersionKeys.stored(v);
+        return (stored & VersionKeys.INEXACT) != 0L ? NO_KEY : (stored >>> 2) + 1L;
+    }
+    
+    /**
+     * Tells if every key could be made, if not the {@link Version}s have to be
+     * sorted with {@link Versions#keyComparator}.
+     */
+    private static boolean checkKeys(long[] keys)
+    {
+        for (long key : keys)
+        {
+            if (key == NO_KEY)
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private static boolean isSorted(long[] keys)
+    {
+        for (int i = 1; i < keys.length; i++)
+        {
+            if (keys[i - 1] > keys[i])
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private static int[] identity(int n)
+    {
+        int[] ret = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            ret[i] = i;
+        }
+        
+        return ret;
+    }
+    
+    /**
+     * Sorts keys[from, to) and the positions next to them by key, keeping
+     * equal keys in their order. The buffers are used for the same range.
+     */
+    private static void radixSort(long[] keys, int[] order, long[] keyBuffer, int[] orderBuffer, int from, int to)
+    {
+        long all = -1L;
+        long any = 0L;
+        for (int i = from; i < to; i++)
+        {
+            all &= keys[i];
+            any |= keys[i];
+        }
+        
+        long differing = all ^ any;
+        long[] srcKeys = keys;
+        int[] srcOrder = order;
+        long[] dstKeys = keyBuffer;
+        int[] dstOrder = orderBuffer;
+        int[] counts = new int[257];
+        for (int shift = 0; shift < 64; shift += 8)
+        {
+            if ((differing >>> shift & 0xFFL) == 0L)
+            {
+                continue;
+            }
+            
+            Arrays.fill(counts, 0);
+            for (int i = from; i < to; i++)
+            {
+                counts[(int) (srcKeys[i] >>> shift & 0xFFL) + 1]++;
+            }
+            
+            counts[0] = from;
+            for (int b = 0; b < 256; b++)
+            {
+                counts[b + 1] += counts[b];
+            }
+            
+            for (int i = from; i < to; i++)
+            {
+                int pos = counts[(int) (srcKeys[i] >>> shift & 0xFFL)]++;
+                dstKeys[pos] = srcKeys[i];
+                dstOrder[pos] = srcOrder[i];
+            }
+            
+            long[] k = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = k;
+            int[] o = srcOrder;
+            srcOrder = dstOrder;
+            dstOrder = o;
+        }
+        
+        if (srcKeys != keys)
+        {
+            System.arraycopy(srcKeys, from, keys, from, to - from);
+            System.arraycopy(srcOrder, from, order, from, to - from);
+        }
+    }
+    
+    /**
+     * Radix sorts the two halves of a range at the same time and merges them.
+     */
+    private static final class SortTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final long[] keys;
+        private final int[] order;
+        private final long[] keyBuffer;
+        private final int[] orderBuffer;
+        private final int from;
+        private final int to;
+        
+        private SortTask(long[] keys, int[] order, long[] keyBuffer, int[] orderBuffer, int from, int to)
+        {
+            this.keys = keys;
+            this.order = order;
+            this.keyBuffer = keyBuffer;
+            this.orderBuffer = orderBuffer;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (to - from <= PARALLEL_PIECE)
+            {
+                radixSort(keys, order, keyBuffer, orderBuffer, from, to);
+                return;
+            }
+            
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(keys, order, keyBuffer, orderBuffer, from, mid),
+                    new SortTask(keys, order, keyBuffer, orderBuffer, mid, to));
+            
+            if (keys[mid - 1] <= keys[mid])
+            {
+                return;
+            }
+            
+            int i = from;
+            int j = mid;
+            int out = from;
+            while (i < mid && j < to)
+            {
+                // ties go to the left half, so equal keys keep their order
+                if (keys[j] < keys[i])
+                {
+                    keyBuffer[out] = keys[j];
+                    orderBuffer[out++] = order[j++];
+                }
+                else
+                {
+                    keyBuffer[out] = keys[i];
+                    orderBuffer[out++] = order[i++];
+                }
+            }
+            
+            System.arraycopy(keys, i, keyBuffer, out, mid - i);
+            System.arraycopy(order, i, orderBuffer, out, mid - i);
+            out += mid - i;
+            System.arraycopy(keyBuffer, from, keys, from, out - from);
+            System.arraycopy(orderBuffer, from, order, from, out - from);
+        }
+    }
+}
@@ -19,7 +19,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * An {@link Object} that contains {@link Version}-related utility methods.
@@ -152,7 +155,7 @@ public final class Versions
                         return -1;
                     }
                     
-                    if (s1.qualifier.equalsIgnoreCase(s2.qualifier))
+                    if (s1.qualifier != null && s1.qualifier.equalsIgnoreCase(s2.qualifier))
                     {
                         if (s1.build != s2.build)
                         {
@@ -206,6 +209,45 @@ public final class Versions
         }
     };
     
+    /**
+     * An {@link Comparator} that compares two {@link Version}s by their
+     * {@link #key(Version) keys}, a single {@code long} comparison instead of
+     * the checks {@link #comparator} goes through.
+     * <p/>
+     * When either key is not {@link #isKeyExact(Version) exact} the
+     * {@link Version}s are compared with {@link #comparator} instead.
+     * {@code null} comes before every {@link Version}.
+     *
+     * @see Comparator
+     * @see #key(Version)
+     */
+    public static final Comparator<Version> keyComparator = new Comparator<Version>()
+    {
+        /**
+         * Compares two {@link Version}s by their keys.
+         *
+         * @see Comparator#compare(Object, Object)
+         */
+        @Override
+        public int compare(Version o1, Version o2)
+        {
+            if (o1 == null || o2 == null)
+            {
+                return o1 == o2 ? 0 : o1 == null ? -1 : 1;
+            }
+            
+            long k1 = VersionKeys.stored(o1);
+            long k2 = VersionKeys.stored(o2);
+            
+            if (((k1 | k2) & VersionKeys.INEXACT) != 0L)
+            {
+                return comparator.compare(o1, o2);
+            }
+            
+            return k1 < k2 ? -1 : k1 == k2 ? 0 : 1;
+        }
+    };
+    
     /**
      *
      * Constructs a new {@link Versions}.
@@ -225,101 +267,202 @@ public final class Versions
      * @throws VersionFormatException
      *             if the {@link String} does not contain a parsable
      *             {@link Version}.
+     * @see #parse(CharSequence)
      */
     public static Version parse(String s)
     {
-        String major = "";
-        String minor = "";
-        int dots = 0;
-        boolean hyphen = false;
-        
-        String patch = "";
-        String qualifier = "";
-        String build = "";
-        
-        for (Character c : s.toCharArray())
-        {
-            if (c.equals('.'))
-            {
-                dots = dots + 1;
-            }
-            else if (c.equals('-'))
-            {
-                hyphen = true;
-            }
-            else
-            {
-                switch (dots)
-                {
-                    case 0:
-                    {
-                        major = major + c.charValue();
-                        break;
-                    }
-                    case 1:
-                    {
-                        if (hyphen)
-                        {
-                            qualifier = qualifier + c.toString();
-                        }
-                        else
-                        {
-                            minor = minor + c.toString();
-                        }
-                        break;
-                    }
-                    case 2:
-                    {
-                        if (hyphen)
-                        {
-                            qualifier = qualifier + c.toString();
-                        }
-                        else
-                        {
-                            patch = patch + c.toString();
-                        }
-                        break;
-                    }
-                    case 3:
-                    {
-                        build = build + c.toString();
-                        break;
-                    }
-                }
-            }
-        }
-        
-        if (major.equals("") || minor.equals(""))
+        return VersionInterner.parse(s);
+    }
+    
+    /**
+     * Parses a {@link Version} from the given {@link CharSequence} in a single
+     * pass.
+     * <p/>
+     * The format is {@code major.minor[.patch][-qualifier][.build]}. The patch
+     * may only be left out by snapshots ({@code major.minor-SNAPSHOT}), and
+     * a snapshot's patch is ignored. Surrounding whitespace is ignored.
+     * <p/>
+     * Recently parsed strings give back the same, shared {@link Version}, see
+     * {@link #intern(Version)}.
+     *
+     * @param s
+     *            the {@link CharSequence} representing the {@link Version}.
+     * @return the {@link Version} represented by the {@link CharSequence}.
+     * @throws VersionFormatException
+     *             if the {@link CharSequence} does not contain a parsable
+     *             {@link Version}.
+     */
+    public static Version parse(CharSequence s)
+    {
+        return VersionInterner.parse(s);
+    }
+    
+    /**
+     * Parses a {@link Version} from the given ASCII bytes.
+     *
+     * @param bytes
+     *            the bytes representing the {@link Version}.
+     * @return the {@link Version} represented by the bytes.
+     * @throws VersionFormatException
+     *             if the bytes do not contain a parsable {@link Version}.
+     * @see #parse(CharSequence)
+     */
+    public static Version parse(byte[] bytes)
+    {
+        return VersionInterner.intern(VersionParser.parse(bytes, 0, bytes.length));
+    }
+    
+    /**
+     * Parses a {@link Version} from a range of the given ASCII bytes.
+     *
+     * @param bytes
+     *            the bytes.
+     * @param offset
+     *            the index of the first byte of the {@link Version}.
+     * @param length
+     *            the amount of bytes in the {@link Version}.
+     * @return the {@link Version} represented by the bytes.
+     * @throws VersionFormatException
+     *             if the bytes do not contain a parsable {@link Version}.
+     * @throws IndexOutOfBoundsException
+     *             if the range is not inside the array.
+     * @see #parse(CharSequence)
+     */
+    public static Version parse(byte[] bytes, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset > bytes.length - length)
         {
-            throw new VersionFormatException("Major or minor may not be null");
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length "
+                    + bytes.length);
         }
         
-        if (qualifier.equalsIgnoreCase(Versions.SNAPSHOT))
-        {
-            return new Snapshot(major, minor);
-        }
-        else if (qualifier.equalsIgnoreCase(""))
-        {
-            if (build.equalsIgnoreCase(""))
-            {
-                return new SemanticVersion(major, minor, patch);
-            }
-            else
-            {
-                return new BigVersion(major, minor, patch, build);
-            }
-        }
-        else
-        {
-            if (build.equalsIgnoreCase(""))
-            {
-                return new SemanticVersion(major, minor, patch, qualifier);
-            }
-            else
-            {
-                return new SemanticVersion(major, minor, patch, qualifier, build);
-            }
-        }
+        return VersionInterner.intern(VersionParser.parse(bytes, offset, offset + length));
+    }
+    
+    /**
+     * Parses a {@link Version} from the remaining ASCII bytes of the given
+     * {@link ByteBuffer}. The position of the {@link ByteBuffer} is not
+     * changed.
+     *
+     * @param buffer
+     *            the {@link ByteBuffer}.
+     * @return the {@link Version} represented by the bytes.
+     * @throws VersionFormatException
+     *             if the bytes do not contain a parsable {@link Version}.
+     * @see #parse(CharSequence)
+     */
+    public static Version parse(ByteBuffer buffer)
+    {
+        return VersionInterner.intern(VersionParser.parse(buffer, buffer.position(), buffer.limit()));
+    }
+    
+    /**
+     * Gives the sortable key of the {@link Version}.
+     * <p/>
+     * The key packs the major, minor, patch, release kind (snapshot, alpha,
+     * beta, other qualifier, stable) and build into a {@code long}, so that
+     * {@link Long#compare(long, long)} on keys agrees with {@link #comparator}.
+     * Where {@link #comparator} calls two {@link Version}s equal without them
+     * being equal, for example two different unknown qualifiers, the keys may
+     * still order them by build. Major, minor and patch numbers above 16383 and
+     * builds above 65535 do not fit and are clamped, see
+     * {@link #isKeyExact(Version)}. The key is computed once and kept in the
+     * {@link Version}.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return the key of the {@link Version}.
+     */
+    public static long key(Version v)
+    {
+        return VersionKeys.key(v);
+    }
+    
+    /**
+     * Tells if the {@link #key(Version) key} of the {@link Version} holds all
+     * of its numbers. Inexact keys do not always agree with
+     * {@link #comparator}.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return {@code true} if the key is exact, otherwise {@code false}.
+     */
+    public static boolean isKeyExact(Version v)
+    {
+        return VersionKeys.isExact(v);
+    }
+    
+    /**
+     * Creates a {@link TreeSet} ordered by {@link #keyComparator}.
+     *
+     * @return the new {@link TreeSet}.
+     */
+    public static TreeSet<Version> newTreeSet()
+    {
+        return new TreeSet<Version>(keyComparator);
+    }
+    
+    /**
+     * Creates a {@link TreeMap} with {@link Version} keys ordered by
+     * {@link #keyComparator}.
+     *
+     * @param <V>
+     *            the type of the values.
+     * @return the new {@link TreeMap}.
+     */
+    public static <V> TreeMap<Version, V> newTreeMap()
+    {
+        return new TreeMap<Version, V>(keyComparator);
+    }
+    
+    /**
+     * Sorts the array into the order of {@link #keyComparator}, keeping equal
+     * {@link Version}s in their order.
+     * <p/>
+     * The {@link Version}s are sorted by their {@link #key(Version) keys} with
+     * a radix sort, without calling a {@link Comparator}. If some key is not
+     * {@link #isKeyExact(Version) exact} the array is sorted with
+     * {@link #keyComparator} instead.
+     *
+     * @param a
+     *            the array to sort, may contain {@code null}s.
+     * @see #parallelSort(Version[])
+     */
+    public static void sort(Version[] a)
+    {
+        VersionSorter.sort(a);
+    }
+    
+    /**
+     * Sorts the array like {@link #sort(Version[])}, using the threads of the
+     * common {@link java.util.concurrent.ForkJoinPool} for large arrays.
+     *
+     * @param a
+     *            the array to sort, may contain {@code null}s.
+     * @see #sort(Version[])
+     */
+    public static void parallelSort(Version[] a)
+    {
+        VersionSorter.parallelSort(a);
+    }
+    
+    /**
+     * Gives a shared {@link Version} equal to the given one.
+     * <p/>
+     * Interning the same {@link Version} again usually gives back the same
+     * instance, so equal {@link Version}s can share memory and be compared by
+     * identity first. The intern table is bounded, an old entry can be pushed
+     * out by a new one, so two interned equal {@link Version}s are not
+     * guaranteed to be the same instance.
+     *
+     * @param v
+     *            the {@link Version}.
+     * @return the shared {@link Version}, or {@code null} if the given one is
+     *         {@code null}.
+     */
+    public static Version intern(Version v)
+    {
+        return v == null ? null : VersionInterner.intern(v);
     }
     
     /**
@@ -394,6 +537,11 @@ public final class Versions
      */
     public static boolean equals(Version v, Version v1)
     {
+        if (v == v1)
+        {
+            return true;
+        }
+        
         return v.equals(v1) && comparator.compare(v, v1) == 0 || v == null && v1 == null;
     }
     